@@ -4,33 +4,65 @@ import com.sun.tools.javac.comp.AttrContext;
 import com.sun.tools.javac.comp.Env;
 import com.sun.tools.javac.file.JavacFileManager;
 import com.sun.tools.javac.main.JavaCompiler;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.JCTree.JCClassDecl;
 import com.sun.tools.javac.tree.JCTree.JCCompilationUnit;
 import com.sun.tools.javac.util.*;
 import com.sun.tools.javac.util.List;
 import com.sun.tools.javac.util.Log.WriterKind;
+import scalajs_java.utils.Metrics;
 
 import javax.tools.Diagnostic;
+import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class CompilerInterface {
 
     public JCCompilationUnit compilationUnit;
     public ArrayList<JCCompilationUnit> compilationUnits;
     private JavaCompiler compiler;
+    private JavacFileManager fileManager;
     private Log log;
+    private DiagnosticSink sink;
+    /** Name under which the javac phases are reported to `Metrics` */
+    private String metricsUnit = "<project>";
     public java.util.List<JavacError> errors;
     public int errCount;
     public Queue<Env<AttrContext>> attrs;
 
     public CompilerInterface() {
+        this(null);
+    }
+
+    /** Creates a fresh javac instance that shares an already warmed-up
+     *  file manager (with its opened platform class path) with a previous
+     *  compilation. A `null` file manager creates a new one. */
+    public CompilerInterface(JavacFileManager fileManager) {
+        this(fileManager, DiagnosticSink.global());
+    }
+
+    /** The diagnostics are reported to (and printed by) `sink`. */
+    public CompilerInterface(JavacFileManager fileManager, DiagnosticSink sink) {
         Context context = new Context();
 
-        JavacFileManager.preRegister(context);
+        if (fileManager == null) {
+            JavacFileManager.preRegister(context);
+        } else {
+            fileManager.setContext(context);
+            context.put(JavaFileManager.class, (JavaFileManager) fileManager);
+        }
         this.compiler = JavaCompiler.instance(context);
         this.compiler.attrParseOnly = true;
         this.compiler.verbose = false;
@@ -42,8 +74,14 @@ public class CompilerInterface {
         this.log.dumpOnError = false;
         this.log.emitWarnings = false;
         this.errCount = 0;
-        this.errors = new java.util.LinkedList<>();
-        this.log.setDiagnosticFormatter(new DiagFormatter(errors, context));
+        this.errors = new ArrayList<>();
+        this.sink = sink;
+        this.log.setDiagnosticFormatter(new DiagFormatter(errors, sink, context));
+        this.fileManager = (JavacFileManager) context.get(JavaFileManager.class);
+    }
+
+    public JavacFileManager getFileManager() {
+        return fileManager;
     }
 
     /** Compile a file from disk */
@@ -75,43 +113,182 @@ public class CompilerInterface {
         this.errCount = this.log.nerrors;
     }
 
-    private static ArrayList<JavaFileObject> findSources(File path){
-        ArrayList<JavaFileObject> sources = new ArrayList<>();
+    /** Source files are the ones matching this glob */
+    private static final String SOURCE_GLOB = "glob:**.java";
 
-        if (path.isDirectory()) {
-            String[] children = path.list();
-            for (int i = 0; children != null && i < children.length; i++) {
-                sources.addAll(findSources(new File(path, children[i])));
-            }
-        } else if (path.isFile()) {
-            if (path.getName().endsWith(".java")) {
-                System.out.println(path.getName());
-                JavaFileObject jfo = new SourceObject(path.getAbsolutePath());
-                sources.add(jfo);
+    private static ArrayList<File> findSourceFiles(File path) throws IOException {
+        return findSourceFiles(path, SOURCE_GLOB);
+    }
+
+    private static ArrayList<File> findSourceFiles(File path, String glob) throws IOException {
+        ArrayList<File> sources = new ArrayList<>();
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher(glob);
+
+        Files.walkFileTree(path.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && matcher.matches(file))
+                    sources.add(file.toFile());
+                return FileVisitResult.CONTINUE;
             }
+        });
+
+        // keep the order of the units independent of the file system
+        Collections.sort(sources);
+        return sources;
+    }
+
+    private static ArrayList<JavaFileObject> findSources(File path) throws IOException {
+        ArrayList<JavaFileObject> sources = new ArrayList<>();
+        for (File file : findSourceFiles(path)) {
+            sources.add(new SourceObject(file.getAbsolutePath()));
         }
 
         return sources;
     }
 
-    public void compileProject(String rootDir) throws Exception {
+    private static File findSourceDir(String rootDir) throws Exception {
         File srcDir = new File(rootDir, "src");
         if (!srcDir.exists())
             throw new Exception("[CompilerInteraface -- compileProject]" +
                     "unable to find the 'src' directory in project root");
 
-        ArrayList<JavaFileObject> sources = findSources(srcDir);
+        return srcDir;
+    }
 
-        List<JCCompilationUnit> compilationUnits =
-                compiler.enterTrees(compiler.parseFiles(sources));
+    /** Names (as reported by `JavaFileObject.getName`) of all the
+     *  source files of a project */
+    public java.util.List<String> listSources(String rootDir) throws Exception {
+        ArrayList<String> names = new ArrayList<>();
+        for (File file : findSourceFiles(findSourceDir(rootDir))) {
+            names.add(file.getAbsoluteFile().toURI().getPath());
+        }
+
+        return names;
+    }
+
+    public void compileProject(String rootDir) throws Exception {
+        compileProject(rootDir, null);
+    }
+
+    /** Parses and enters all the sources of a project, but typechecks
+     *  only the ones in `attributedSources` (all of them if `null`).
+     *
+     *  Class and member signatures are known for every unit after
+     *  entering, so the other units can still be traversed
+     *  (without method bodies, see `JTreeTraverse`). */
+    public void compileProject(String rootDir,
+                               java.util.Set<String> attributedSources) throws Exception {
+        compileSources(findSources(findSourceDir(rootDir)), attributedSources);
+    }
+
+    /** Reports the time and memory used by a javac phase to `Metrics` */
+    private void recordPhase(String phase, long startNanos, long startBytes) {
+        if (Metrics.enabled()) {
+            Metrics.record(phase, metricsUnit, System.nanoTime() - startNanos,
+                    Metrics.allocatedBytes() - startBytes);
+        }
+    }
+
+    private void compileSources(java.util.List<JavaFileObject> sources,
+                                java.util.Set<String> attributedSources) {
+        long start = System.nanoTime();
+        long startBytes = Metrics.allocatedBytes();
+        List<JCCompilationUnit> parsed = compiler.parseFiles(sources);
+        recordPhase("Javac parse", start, startBytes);
+
+        start = System.nanoTime();
+        startBytes = Metrics.allocatedBytes();
+        List<JCCompilationUnit> compilationUnits = compiler.enterTrees(parsed);
+        recordPhase("Javac enter", start, startBytes);
+
+        start = System.nanoTime();
+        startBytes = Metrics.allocatedBytes();
+        if (attributedSources == null) {
+            this.attrs = compiler.attribute(compiler.todo);
+        } else {
+            ArrayDeque<Env<AttrContext>> selected = new ArrayDeque<>();
+            for (Env<AttrContext> env : compiler.todo) {
+                if (attributedSources.contains(env.toplevel.sourcefile.getName()))
+                    selected.add(env);
+            }
+            this.attrs = compiler.attribute(selected);
+        }
+        recordPhase("Javac attribute", start, startBytes);
 
-        this.attrs = compiler.attribute(compiler.todo);
         this.compilationUnits = new ArrayList<>(compilationUnits.size());
         compilationUnits.iterator().forEachRemaining(cu -> this.compilationUnits.add(cu));
 
         this.errCount = this.log.nerrors;
     }
 
+    /** Compiles a project splitting it into independent partitions
+     *  (see `SourcePartitioner`), each one parsed and typechecked by
+     *  a separate javac instance, on `threads` threads.
+     *
+     *  The results are merged back into this instance in the order of
+     *  the source files, so the rest of the compiler sees the same thing
+     *  as after `compileProject`. */
+    public void compileProjectParallel(String rootDir, int threads) throws Exception {
+        File srcDir = findSourceDir(rootDir);
+        ArrayList<File> files = findSourceFiles(srcDir);
+        java.util.List<java.util.List<File>> partitions =
+                new SourcePartitioner().partition(files);
+
+        if (threads <= 1 || partitions.size() <= 1) {
+            compileProject(rootDir);
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(threads, partitions.size()));
+        ArrayList<Future<CompilerInterface>> results = new ArrayList<>();
+        try {
+            for (java.util.List<File> partition : partitions) {
+                results.add(executor.submit(() -> {
+                    CompilerInterface partCompiler = new CompilerInterface(null, sink);
+                    partCompiler.metricsUnit = partition.get(0).getName();
+                    partCompiler.fileManager.setLocation(StandardLocation.SOURCE_PATH,
+                            Collections.singletonList(srcDir));
+
+                    ArrayList<JavaFileObject> sources = new ArrayList<>();
+                    HashSet<String> names = new HashSet<>();
+                    for (File file : partition) {
+                        JavaFileObject source = new SourceObject(file.getAbsolutePath());
+                        sources.add(source);
+                        names.add(source.getName());
+                    }
+
+                    // classes of other partitions referenced by their full
+                    // names are loaded from the source path, but only the
+                    // partition itself is typechecked
+                    partCompiler.compileSources(sources, names);
+                    return partCompiler;
+                }));
+            }
+
+            HashMap<String, JCCompilationUnit> units = new HashMap<>();
+            this.attrs = new ArrayDeque<>();
+            this.errCount = 0;
+            for (Future<CompilerInterface> result : results) {
+                CompilerInterface partCompiler = result.get();
+                for (JCCompilationUnit cu : partCompiler.compilationUnits)
+                    units.put(cu.sourcefile.getName(), cu);
+                this.attrs.addAll(partCompiler.attrs);
+                this.errors.addAll(partCompiler.errors);
+                this.errCount += partCompiler.errCount;
+            }
+
+            this.compilationUnits = new ArrayList<>(files.size());
+            for (File file : files) {
+                this.compilationUnits.add(
+                        units.get(file.getAbsoluteFile().toURI().getPath()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     public void compileVirtualProject(java.util.List<String> classNames,
                                       java.util.List<String> sources) {
         int N = classNames.size();
@@ -121,22 +298,49 @@ public class CompilerInterface {
                     sources.get(i)));
         }
 
-        List<JCCompilationUnit> compilationUnits =
-                compiler.enterTrees(compiler.parseFiles(sourceObjects));
+        compileSources(sourceObjects, null);
+    }
 
-        this.attrs = compiler.attribute(compiler.todo);
-        this.compilationUnits = new ArrayList<>(compilationUnits.size());
-        compilationUnits.iterator().forEachRemaining(cu -> this.compilationUnits.add(cu));
-        this.errCount = this.log.nerrors;
+    /** Drops the javac trees of a unit that has already been converted
+     *  (see `JTreeTraverse`), so they can be garbage collected while the
+     *  other units are being compiled.
+     *
+     *  The class bodies are cleared in place, because javac's own tables
+     *  still refer to the class trees. Symbols and types stay valid. */
+    public void releaseUnit(int index) {
+        JCCompilationUnit cu = compilationUnits.get(index);
+        if (cu == null)
+            return;
+
+        compilationUnits.set(index, null);
+        // the attribution envs refer to all the trees and are not used anymore
+        this.attrs = null;
+        this.compilationUnit = null;
+
+        for (JCTree def : cu.defs) {
+            if (def instanceof JCClassDecl)
+                releaseClass((JCClassDecl) def);
+        }
+        cu.defs = List.nil();
     }
 
-    public String formatErrors() {
-        String errorStr = errors.stream().map(JavacError::format).reduce("", (msg1, msg2) -> msg1 + "\n" + msg2);
-        if (!errorStr.isEmpty()) {
-            return "Java parsing errors:" + errorStr;
+    private static void releaseClass(JCClassDecl classDecl) {
+        for (JCTree member : classDecl.defs) {
+            if (member instanceof JCClassDecl)
+                releaseClass((JCClassDecl) member);
         }
+        classDecl.defs = List.nil();
+    }
+
+    public String formatErrors() {
+        if (errors.isEmpty())
+            return "";
+
+        StringBuilder sb = new StringBuilder("Java parsing errors:");
+        for (JavacError error : errors)
+            sb.append('\n').append(error.format());
 
-        return "";
+        return sb.toString();
     }
 
     public void printEnvs() {
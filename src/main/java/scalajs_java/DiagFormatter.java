@@ -11,16 +11,22 @@ public class DiagFormatter extends BasicDiagnosticFormatter {
 
     public java.util.List<JavacError> errors;
 
-    public DiagFormatter(java.util.List<JavacError> errors, Context context) {
+    private DiagnosticSink sink;
+
+    public DiagFormatter(java.util.List<JavacError> errors, DiagnosticSink sink,
+                         Context context) {
         super(JavacMessages.instance(context));
 
         this.errors = errors;
+        this.sink = sink;
     }
 
     @Override
     public String format(JCDiagnostic diagnostic, Locale locale) {
         JavacError error = JavacError.fromDiagnostic(diagnostic, locale);
-        errors.add(error);
+        // past the error limit the diagnostics are only counted
+        if (sink.report(error.toRecord()))
+            errors.add(error);
         return "";
     }
 }
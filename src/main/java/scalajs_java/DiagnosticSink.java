@@ -0,0 +1,128 @@
+package scalajs_java;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/** Collects the diagnostics of every compiler phase (javac and the passes).
+ *
+ *  Every diagnostic is printed as soon as it is reported. Only the first
+ *  `maxErrors` errors are printed and kept, the rest are only counted,
+ *  so a broken source producing thousands of errors does not stall the
+ *  build. Thread-safe (parallel javac instances report here too). */
+public class DiagnosticSink {
+
+    public enum Severity {
+        WARNING, ERROR, FATAL;
+
+        @Override
+        public String toString() {
+            return this == FATAL ? "ERROR (fatal)" : name();
+        }
+    }
+
+    public static class Record {
+        public final String phase;
+        public final Severity severity;
+        public final long line;
+        public final long column;
+        /** Name of the method the error was found in, or `null` */
+        public final String method;
+        public final String message;
+
+        public Record(String phase, Severity severity, long line, long column,
+                      String method, String message) {
+            this.phase = phase;
+            this.severity = severity;
+            this.line = line;
+            this.column = column;
+            this.method = method;
+            this.message = message;
+        }
+
+        public boolean isError() {
+            return severity != Severity.WARNING;
+        }
+
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            sb.append('[').append(severity).append("] ").append(phase)
+              .append(", line ").append(line);
+            if (column > 0)
+                sb.append(", column ").append(column);
+            if (method != null)
+                sb.append(", in method ").append(method);
+            sb.append(": ").append(message);
+
+            return sb.toString();
+        }
+    }
+
+    public static final int DEFAULT_MAX_ERRORS = 100;
+
+    private static DiagnosticSink global = new DiagnosticSink(System.out, DEFAULT_MAX_ERRORS);
+
+    /** The sink used when none is given explicitly */
+    public static synchronized DiagnosticSink global() {
+        return global;
+    }
+
+    public static synchronized void setGlobal(DiagnosticSink sink) {
+        global = sink;
+    }
+
+    private final PrintStream out;
+    private final int maxErrors;
+    private final ArrayList<Record> records = new ArrayList<>();
+    private int errorCount = 0;
+    private int warningCount = 0;
+
+    public DiagnosticSink(PrintStream out, int maxErrors) {
+        this.out = out;
+        this.maxErrors = maxErrors;
+    }
+
+    /** Returns `false` if the diagnostic was dropped because of the
+     *  error limit. */
+    public synchronized boolean report(Record record) {
+        if (record.isError()) {
+            errorCount += 1;
+            if (errorCount > maxErrors) {
+                if (errorCount == maxErrors + 1)
+                    out.println("[" + Severity.ERROR + "] too many errors, " +
+                            "only the first " + maxErrors + " are reported");
+                return false;
+            }
+        } else {
+            warningCount += 1;
+            if (limitReached())
+                return false;
+        }
+
+        records.add(record);
+        out.println(record.format());
+        return true;
+    }
+
+    public synchronized boolean limitReached() {
+        return errorCount >= maxErrors;
+    }
+
+    public synchronized int errorCount() {
+        return errorCount;
+    }
+
+    public synchronized int warningCount() {
+        return warningCount;
+    }
+
+    /** The diagnostics reported so far (up to the limit) */
+    public synchronized java.util.List<Record> records() {
+        return new ArrayList<>(records);
+    }
+
+    public synchronized void reset() {
+        records.clear();
+        errorCount = 0;
+        warningCount = 0;
+    }
+}
@@ -19,13 +19,20 @@ public class JavacError {
 
     public static JavacError fromDiagnostic(Diagnostic d, Locale locale) {
         return new JavacError(d.getLineNumber(), d.getColumnNumber(),
-                d.getMessage(locale), d.getKind() == Diagnostic.Kind.ERROR);
+                d.getMessage(locale), d.getKind() != Diagnostic.Kind.ERROR);
+    }
+
+    public DiagnosticSink.Record toRecord() {
+        DiagnosticSink.Severity severity = (isWarning) ?
+                DiagnosticSink.Severity.WARNING : DiagnosticSink.Severity.ERROR;
+
+        return new DiagnosticSink.Record("Javac", severity, line, column, null, message);
     }
 
     public String format() {
         String prefix = (isWarning) ? "WARNING" : "ERROR";
 
-        return "[" + prefix + "] at line" + line +
+        return "[" + prefix + "] at line " + line +
                 ", column: " + column + ". " + message;
     }
 }
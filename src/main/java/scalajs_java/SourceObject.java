@@ -2,49 +2,88 @@ package scalajs_java;
 
 import javax.tools.SimpleJavaFileObject;
 import java.io.*;
+import java.lang.ref.SoftReference;
 import java.net.URI;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 class SourceObject extends SimpleJavaFileObject {
 
+    /** Files bigger than this are memory-mapped instead of read */
+    private static final long MAP_THRESHOLD = 64 * 1024;
+
+    private final Path path;
+
     private String source;
 
+    /** Contents of a file, loaded when javac asks for them. Softly
+     *  referenced, so a big project does not have to fit in the heap
+     *  (the file is read again if needed) */
+    private SoftReference<CharSequence> content;
+
     SourceObject(String filename) {
         super(new File(filename).toURI(), Kind.SOURCE);
+        this.path = Paths.get(filename);
         this.source = null;
-
-        try {
-            this.source = readFile(filename);
-        } catch(IOException ex) {
-            System.out.println("File not found");
-        }
+        this.content = new SoftReference<>(null);
     }
 
     SourceObject(String name, String source) {
         super(URI.create(String.format("string:///%s%s", name.replaceAll("\\.", "/"),
                 Kind.SOURCE.extension)), Kind.SOURCE);
+        this.path = null;
         this.source = source;
+        this.content = new SoftReference<>(source);
     }
 
     @Override
-    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
-        return this.source;
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+        if (source != null)
+            return source;
+
+        CharSequence chars = content.get();
+        if (chars == null) {
+            chars = readFile(path);
+            content = new SoftReference<>(chars);
+        }
+
+        return chars;
     }
 
     public String getSource() {
-        return source;
-    }
+        if (source != null)
+            return source;
 
-    private static String readFile(String path) throws IOException {
-        return readFile(path, StandardCharsets.UTF_8);
+        try {
+            return getCharContent(true).toString();
+        } catch (IOException ex) {
+            return null;
+        }
     }
 
-    private static String readFile(String path, Charset encoding) throws IOException
-    {
-        byte[] encoded = Files.readAllBytes(Paths.get(path));
-        return new String(encoded, encoding);
+    private static CharSequence readFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer bytes;
+            if (size > MAP_THRESHOLD) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0) {}
+                bytes.flip();
+            }
+
+            // malformed input is replaced, like `new String(bytes, UTF_8)` does
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            return decoder.decode(bytes);
+        }
     }
 }
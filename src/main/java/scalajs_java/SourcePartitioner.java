@@ -0,0 +1,125 @@
+package scalajs_java;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Splits the sources of a project into partitions that can be typechecked
+ *  independently of each other.
+ *
+ *  Only the `package` and `import` declarations are scanned (no parsing):
+ *  a package is put in the same partition as every project package it
+ *  imports from. Files in a package always end up in the same partition.
+ *  References by fully qualified names are not seen here, so every javac
+ *  context still gets the whole source directory as its source path. */
+class SourcePartitioner {
+
+    private static final Pattern COMMENTS =
+            Pattern.compile("//[^\\n]*|/\\*.*?\\*/", Pattern.DOTALL);
+
+    private static final Pattern PACKAGE =
+            Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+
+    private static final Pattern IMPORT =
+            Pattern.compile("^\\s*import\\s+(?:static\\s+)?([\\w.]+)(?:\\s*\\.\\s*\\*)?\\s*;",
+                    Pattern.MULTILINE);
+
+    private static class Header {
+        final String pkg;
+        final java.util.List<String> imports;
+
+        Header(String pkg, java.util.List<String> imports) {
+            this.pkg = pkg;
+            this.imports = imports;
+        }
+    }
+
+    private final Map<String, String> parents = new HashMap<>();
+
+    private String find(String pkg) {
+        String parent = parents.get(pkg);
+        if (parent.equals(pkg))
+            return pkg;
+
+        String root = find(parent);
+        parents.put(pkg, root);
+        return root;
+    }
+
+    private void union(String pkg1, String pkg2) {
+        String root1 = find(pkg1);
+        String root2 = find(pkg2);
+        // keep the smallest name as the root, so that the result does
+        // not depend on the order of the files
+        if (root1.compareTo(root2) < 0)
+            parents.put(root2, root1);
+        else if (root1.compareTo(root2) > 0)
+            parents.put(root1, root2);
+    }
+
+    private static Header scanHeader(File file) throws IOException {
+        String source = new String(Files.readAllBytes(file.toPath()),
+                StandardCharsets.UTF_8);
+        // the header ends where the first type declaration starts
+        String header = COMMENTS.matcher(source).replaceAll(" ");
+        Matcher typeDecl = Pattern.compile(
+                "\\b(class|interface|enum)\\b").matcher(header);
+        if (typeDecl.find())
+            header = header.substring(0, typeDecl.start());
+
+        Matcher pkgMatcher = PACKAGE.matcher(header);
+        String pkg = pkgMatcher.find() ? pkgMatcher.group(1) : "";
+
+        ArrayList<String> imports = new ArrayList<>();
+        Matcher importMatcher = IMPORT.matcher(header);
+        while (importMatcher.find())
+            imports.add(importMatcher.group(1));
+
+        return new Header(pkg, imports);
+    }
+
+    /** The longest prefix of `name` which is a package of the project */
+    private String projectPackage(String name) {
+        String prefix = name;
+        while (!prefix.isEmpty()) {
+            if (parents.containsKey(prefix))
+                return prefix;
+            int dot = prefix.lastIndexOf('.');
+            prefix = dot < 0 ? "" : prefix.substring(0, dot);
+        }
+
+        return null;
+    }
+
+    /** Returns the partitions of `files`, each one in the original order
+     *  of the files. The partitions are ordered by their first file. */
+    java.util.List<java.util.List<File>> partition(java.util.List<File> files)
+            throws IOException {
+        java.util.List<Header> headers = new ArrayList<>(files.size());
+        for (File file : files) {
+            Header header = scanHeader(file);
+            headers.add(header);
+            parents.put(header.pkg, header.pkg);
+        }
+
+        for (Header header : headers) {
+            for (String imp : header.imports) {
+                String pkg = projectPackage(imp);
+                if (pkg != null)
+                    union(header.pkg, pkg);
+            }
+        }
+
+        LinkedHashMap<String, java.util.List<File>> partitions = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); ++i) {
+            String root = find(headers.get(i).pkg);
+            partitions.computeIfAbsent(root, k -> new ArrayList<>()).add(files.get(i));
+        }
+
+        return new ArrayList<>(partitions.values());
+    }
+}
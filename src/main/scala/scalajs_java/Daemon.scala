@@ -0,0 +1,114 @@
+package scalajs_java
+
+import java.io.{File, PrintWriter}
+
+import org.scalajs.core.tools.logging.ScalaConsoleLogger
+
+import scala.io.StdIn
+import scalajs_java.compiler.{CompilerPipeline, IncrementalCache}
+import scalajs_java.runtime.Linker
+
+/** Long-lived compiler process.
+  *
+  * Keeps the JVM, the javac file manager, the Scala.js library IR and
+  * the (incremental) Scala.js linker alive between compilations, so that
+  * only the first request pays for the start-up and JIT warm-up.
+  * Every project also gets an `IncrementalCache`, so only the sources that
+  * changed since the previous request (and their dependents) are recompiled.
+  *
+  * The protocol is line-based, on stdin/stdout:
+  *
+  *   compile <project root> [<output file>]
+  *   quit
+  *
+  * Every request is answered with the compiler logs (diagnostics)
+  * followed by a single status line, either:
+  *
+  *   [daemon] ok <main object name> <output file>
+  *   [daemon] error <message>
+  *
+  * The linked JavaScript is written to the output file
+  * (`<project root>/out.js` by default).
+  */
+class Daemon {
+
+  private val statusPrefix = "[daemon]"
+
+  private val linker = Linker.newLinker()
+
+  private var warmCompiler: CompilerInterface = null
+
+  private var caches: Map[String, IncrementalCache] = Map.empty
+
+  private def cacheFor(project: String): IncrementalCache = {
+    val root = new File(project).getCanonicalPath
+    caches.getOrElse(root, {
+      val cache = new IncrementalCache
+      caches += (root -> cache)
+      cache
+    })
+  }
+
+  def warmUp(): Unit = {
+    Linker.loadLibrary()
+    warmCompiler = new CompilerInterface()
+    warmCompiler.compile("Warmup", "class Warmup {}")
+  }
+
+  def compile(project: String, output: String): String = {
+    // the error limit applies to every request separately
+    DiagnosticSink.global().reset()
+    val javaCompiler = new CompilerInterface(warmCompiler.getFileManager)
+    val pipeline = new CompilerPipeline(verbose = false)
+
+    pipeline.compileProject(javaCompiler, project, new ScalaConsoleLogger,
+        linker, Some(cacheFor(project))) match {
+      case Some((linked, mainObjectName)) =>
+        val writer = new PrintWriter(output, "UTF-8")
+        try writer.write(linked.content)
+        finally writer.close()
+        s"$statusPrefix ok $mainObjectName $output"
+
+      case None =>
+        s"$statusPrefix error compilation failed"
+    }
+  }
+
+  def handle(request: String): Option[String] = {
+    request.trim.split("\\s+").toList match {
+      case "compile" :: project :: rest =>
+        val output = rest.headOption.getOrElse(
+          new File(project, "out.js").getPath)
+        try {
+          Some(compile(project, output))
+        } catch {
+          case e: Exception =>
+            Some(s"$statusPrefix error ${e.getMessage}")
+        }
+
+      case "quit" :: Nil =>
+        None
+
+      case _ =>
+        Some(s"$statusPrefix error unknown request: $request")
+    }
+  }
+
+  def serve(): Unit = {
+    warmUp()
+    println(s"$statusPrefix ready")
+
+    var running = true
+    while (running) {
+      val request = StdIn.readLine()
+      if (request == null) {
+        running = false
+      } else if (request.trim.nonEmpty) {
+        handle(request) match {
+          case Some(status) => println(status)
+          case None         => running = false
+        }
+      }
+    }
+  }
+}
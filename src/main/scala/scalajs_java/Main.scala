@@ -3,10 +3,24 @@ package scalajs_java
 import scala.io.StdIn
 import scalajs_java.compiler.CompilerPipeline
 import scalajs_java.runtime.Config
+import scalajs_java.utils.CompilationFailed
 
 object Main {
 
   def main(args: Array[String]): Unit = {
+    DiagnosticSink.setGlobal(new DiagnosticSink(System.out, Config.maxErrors))
+
+    try {
+      runMain(args)
+    } catch {
+      case e: CompilationFailed =>
+        println(e.getMessage)
+        println("Terminating.")
+        System.exit(1)
+    }
+  }
+
+  def runMain(args: Array[String]): Unit = {
     val argList = args.toList
     val compiler = new CompilerPipeline
     var projPath = ""
@@ -21,6 +35,8 @@ object Main {
 
       if (args(0).equals("example"))
         runExamples(exampleNrOpt)
+      else if (args(0).equals("daemon"))
+        new Daemon().serve()
       else {
         projPath = args(0)
         compiler.run(projPath)
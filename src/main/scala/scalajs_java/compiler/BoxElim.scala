@@ -0,0 +1,134 @@
+package scalajs_java.compiler
+
+import org.scalajs.core.ir.Transformers.Transformer
+import org.scalajs.core.ir.Traversers.Traverser
+import org.scalajs.core.ir.Trees._
+import org.scalajs.core.ir.{Types => irtpe}
+
+import scala.collection.mutable
+
+/** Removes the conversions that `Adapt` inserted but are not needed.
+  *
+  * The wrapper types (`Integer`, `Double`...) are compiled to primitive
+  * types, but the values of the erased (generic) types are `AnyType`, so
+  * a primitive stored in a generic local is unboxed again every time it
+  * is read. Within every method:
+  *
+  *  - the locals of `AnyType` that are only ever given values of the same
+  *    primitive type get that type (their reads are typed precisely),
+  *  - `Unbox`es of trees that already have the primitive type and
+  *    `AsInstanceOf`s of trees that already have the target type are
+  *    removed.
+  *
+  * A local given a more precise type can make others precise as well
+  * (`T y = x`), so this is repeated until no local changes. */
+class BoxElim {
+
+  /** The type of the result of `Unbox` (the codes used by `Adapt`) */
+  private def unboxedType(charCode: Char): Option[irtpe.Type] = charCode match {
+    case 'Z' => Some(irtpe.BooleanType)
+    case 'I' => Some(irtpe.IntType)
+    case 'J' => Some(irtpe.LongType)
+    case 'F' => Some(irtpe.FloatType)
+    case 'D' => Some(irtpe.DoubleType)
+    case _   => None
+  }
+
+  private def isPrimitive(tpe: irtpe.Type): Boolean = tpe match {
+    case irtpe.BooleanType | irtpe.IntType | irtpe.LongType |
+         irtpe.FloatType | irtpe.DoubleType => true
+    case _                                  => false
+  }
+
+  /** The types each local is declared with and the types of all the values
+    * it is given (locals are identified by name: there may be several
+    * definitions of the same name in a method) */
+  private class LocalsCollector extends Traverser {
+    val declared = mutable.Map.empty[String, List[irtpe.Type]]
+    val assigned = mutable.Map.empty[String, List[irtpe.Type]]
+
+    private def add(table: mutable.Map[String, List[irtpe.Type]],
+        name: String, tpe: irtpe.Type): Unit =
+      table(name) = tpe :: table.getOrElse(name, Nil)
+
+    override def traverse(tree: Tree): Unit = {
+      tree match {
+        case VarDef(ident, vtpe, _, rhs) =>
+          add(declared, ident.name, vtpe)
+          add(assigned, ident.name, rhs.tpe)
+
+        case Assign(VarRef(ident), rhs) =>
+          add(assigned, ident.name, rhs.tpe)
+
+        case _ =>
+      }
+      super.traverse(tree)
+    }
+  }
+
+  /** The locals of `AnyType` that can be given a primitive type */
+  private def narrowedLocals(body: Tree): Map[String, irtpe.Type] = {
+    val collector = new LocalsCollector
+    collector.traverse(body)
+
+    collector.declared.toMap collect {
+      case (name, types) if types.forall(_ == irtpe.AnyType) &&
+          collector.assigned(name).distinct.size == 1 &&
+          isPrimitive(collector.assigned(name).head) =>
+        name -> collector.assigned(name).head
+    }
+  }
+
+  private class Rewriter(narrowed: Map[String, irtpe.Type]) extends Transformer {
+    override def transform(tree: Tree, isStat: Boolean): Tree = {
+      implicit val pos = tree.pos
+
+      tree match {
+        case VarDef(ident, _, mutable, rhs) if narrowed.contains(ident.name) =>
+          VarDef(ident, narrowed(ident.name), mutable, transformExpr(rhs))
+
+        case VarRef(ident) if narrowed.contains(ident.name) =>
+          VarRef(ident)(narrowed(ident.name))
+
+        case Unbox(expr, charCode) =>
+          val newExpr = transformExpr(expr)
+          if (unboxedType(charCode).contains(newExpr.tpe)) newExpr
+          else Unbox(newExpr, charCode)
+
+        case AsInstanceOf(expr, cls) =>
+          val newExpr = transformExpr(expr)
+          if (newExpr.tpe == cls) newExpr
+          else AsInstanceOf(newExpr, cls)
+
+        case _ =>
+          super.transform(tree, isStat)
+      }
+    }
+  }
+
+  def elim(body: Tree, isStat: Boolean): Tree = {
+    val narrowed = narrowedLocals(body)
+    val newBody = new Rewriter(narrowed).transform(body, isStat)
+
+    if (narrowed.isEmpty) newBody
+    else elim(newBody, isStat)
+  }
+
+  def elimClassDef(classDef: ClassDef): ClassDef = {
+    implicit val pos = classDef.pos
+
+    val newDefs = classDef.defs map {
+      case md@MethodDef(static, name, args, resType, body) =>
+        implicit val pos = md.pos
+        // the body changes, so its hash is dropped
+        MethodDef(static, name, args, resType,
+          body.map(elim(_, isStat = resType == irtpe.NoType)))(
+          md.optimizerHints, None)
+
+      case other =>
+        other
+    }
+
+    classDef.copy(defs = newDefs)(classDef.optimizerHints)
+  }
+}
@@ -1,24 +1,30 @@
 package scalajs_java.compiler
 
+import java.net.URI
+
+import com.sun.tools.javac.code.TypeTag
 import com.sun.tools.javac.tree.JCTree.Tag
 import org.scalajs.core.ir
 import org.scalajs.core.ir.Definitions._
 import org.scalajs.core.ir.Trees.OptimizerHints
 import org.scalajs.core.ir.{Position, Trees => irt, Types => irtpe}
 
+import scala.annotation.switch
+
 import scalajs_java.compiler.passes.ConstructorPass.ConstructorsT
 import scalajs_java.trees._
 import scalajs_java.utils._
-import scalajs_java.utils.scope.Scope.ClassMapT
 import scalajs_java.utils.scope._
 
 
 /** Main compiler.
-  * TODO remove the constructors pass (take that info from `classes`. */
+  * The constructors are those declared in the compiled unit, the ones of
+  * the other units are found in `classes`. */
 class Compiler(val inits: Map[String, Expr],
-               val classes: ClassMapT,
+               val classes: ClassHierarchy,
                val constructors: ConstructorsT,
-               val errorHanlder: ErrorHandler) {
+               val errorHanlder: ErrorHandler,
+               val mangler: Mangler = new Mangler) {
 
   var MainObjectFullName: Option[String] = None
 
@@ -31,12 +37,29 @@ class Compiler(val inits: Map[String, Expr],
   
   val opCompiler = new OpCompiler(errorHanlder)
 
-  val mangler = new Mangler
-
   val typeCompiler = new TypeCompiler(mangler, errorHanlder)
   
   val utils = new Utils(classes, errorHanlder)
 
+  /** The source file of the unit being compiled */
+  private var sourceFile: Option[URI] = None
+
+  private def getPosition(tree: Tree): Position =
+    Utils.getPosition(tree, sourceFile)
+
+  /** The method being compiled (`null` outside of methods), in which
+    * the temporaries are named */
+  private var currentMethod: Symbol = null
+
+  private def inMethod[T](methodDecl: MethodDecl)(body: => T): T = {
+    val outer = currentMethod
+    currentMethod = methodDecl.symbol
+    try body finally currentMethod = outer
+  }
+
+  private def freshLocalIdent(base: String)(implicit pos: Position): irt.Ident =
+    mangler.freshLocalIdent(base, currentMethod)
+
   // Compiling constructors
 
   /** Compiles statement of a constructor body
@@ -47,11 +70,11 @@ class Compiler(val inits: Map[String, Expr],
     */
   def compileConstructorStmt(className: irt.Ident, classType: irtpe.ClassType,
       superClassType: irtpe.ClassType, stmt: Statement): irt.Tree = {
-    implicit val pos = Utils.getPosition(stmt)
+    implicit val pos = getPosition(stmt)
 
     if (Predicates.isSuperCall(stmt)) {
       stmt match {
-        case ExprStatement(MethodInv(_, _, args, _, _)) =>
+        case ExprStatement(MethodInv(_, _, args, _, _, _)) =>
           val argRefsC = args.map(compileParamRef)
           val argStr = args.map(arg => mangler.mangleType(arg.tp)).mkString("__")
           val constrName = irt.Ident("init___" + argStr)
@@ -59,7 +82,7 @@ class Compiler(val inits: Map[String, Expr],
             argRefsC)(irtpe.NoType)
 
         case _ =>
-          errorHanlder.fail(pos.line, Some("compileConstructorStmt"),
+          errorHanlder.fail(pos, Some("compileConstructorStmt"),
           "encountered unexpected tree", Normal)
           irt.Null()
       }
@@ -75,7 +98,7 @@ class Compiler(val inits: Map[String, Expr],
     * */
   def compileConstructor(className: irt.Ident, classType: irtpe.ClassType,
       superClassType: irtpe.ClassType, methodDecl: MethodDecl): irt.MethodDef = {
-    implicit val pos = Utils.getPosition(methodDecl)
+    implicit val pos = getPosition(methodDecl)
 
     val constrName = mangler.encodeMethod(methodDecl)
     // helper func to capture the names:
@@ -83,7 +106,7 @@ class Compiler(val inits: Map[String, Expr],
       compileConstructorStmt(className, classType, superClassType, stmt)
     val body = methodDecl.body match {
       case Block(statements, _) =>
-        irt.Block(statements.map(compConsStmt))
+        inMethod(methodDecl)(irt.Block(statements.map(compConsStmt)))
 
       case _ =>
         throw new Exception(s"Unexpected constructor body: ${methodDecl.body}")
@@ -104,7 +127,7 @@ class Compiler(val inits: Map[String, Expr],
   // Compiling methods
 
   def compileParam(param: VarDecl): irt.ParamDef = {
-    implicit val pos = Utils.getPosition(param)
+    implicit val pos = getPosition(param)
     val name = irt.Ident(param.name)   // mangler.encodeLocalSym(param.symbol)
     val ptpe = typeCompiler.compileType(param.varType)
 
@@ -112,7 +135,7 @@ class Compiler(val inits: Map[String, Expr],
   }
 
   def compileParamRef(paramRef: Expr): irt.Tree = {
-    implicit val pos = Utils.getPosition(paramRef)
+    implicit val pos = getPosition(paramRef)
     paramRef match {
       case Ident(sym, name, tp, _, _) =>
         val ident = irt.Ident(name)
@@ -126,11 +149,11 @@ class Compiler(val inits: Map[String, Expr],
   }
 
   def compileMethodDecl(methodDecl: MethodDecl): irt.MethodDef = {
-    implicit val pos = Utils.getPosition(methodDecl)
+    implicit val pos = getPosition(methodDecl)
     val name = mangler.encodeMethod(methodDecl) // irt.Ident(mangler.mangleMethodName(methodDecl))
     val retType = methodDecl.retType.map(typeCompiler.compileType).getOrElse(irtpe.NoType)
     val params = methodDecl.params.map(compileParam)
-    val body = compileTree(methodDecl.body)
+    val body = inMethod(methodDecl)(compileTree(methodDecl.body))
     val defVal = methodDecl.defVal.map(compileExpr(_, exprPos = true))
     // methodDecl.modifiers
     val thrown = methodDecl.thrown.map(compileExpr(_, exprPos = true))
@@ -144,7 +167,7 @@ class Compiler(val inits: Map[String, Expr],
   // Compiling classes
 
   def compileFieldDef(varDecl: VarDecl): irt.FieldDef = {
-    implicit val pos = Utils.getPosition(varDecl)
+    implicit val pos = getPosition(varDecl)
     val name = mangler.encodeFieldSym(varDecl.symbol)
     val tpe = typeCompiler.compileType(varDecl.varType)
 //    val modifiers = varDecl.mods
@@ -156,19 +179,25 @@ class Compiler(val inits: Map[String, Expr],
 
   def compileExtendsClause(extendsCl: Option[Expr])(
       implicit pos: Position): (irt.Ident, irtpe.ClassType) = extendsCl match {
-    case  Some(Ident(sym, _, _, _, _)) =>
+    case Some(clause) =>
+      compileSuperSymbol(ClassHierarchy.typeSymbol(clause))
+
+    case None =>
+      (objectClassIdent, objectClassType)
+  }
+
+  def compileSuperSymbol(superSym: Option[Symbol])(
+      implicit pos: Position): (irt.Ident, irtpe.ClassType) = superSym match {
+    case Some(sym) =>
       val name = mangler.encodeClassFullNameIdent(sym)
       val tpe = mangler.encodeClassType(sym)
 
       (name, tpe)
 
-    case Some(_) =>
-      errorHanlder.fail(pos.line, Some("compileExtendsClause"),
-        "extends clause of unknown form (expected: Identifier)", Fatal)
-      (irt.Ident(""), irtpe.ClassType(""))
-
     case None =>
-      (objectClassIdent, objectClassType)
+      errorHanlder.fail(pos, Some("compileExtendsClause"),
+        "extends clause of unknown form (expected: class name)", Fatal)
+      (irt.Ident(""), irtpe.ClassType(""))
   }
 
   def compileMember(className: irt.Ident, classType: irtpe.ClassType,
@@ -182,7 +211,7 @@ class Compiler(val inits: Map[String, Expr],
 
   def compileStaticFieldInitializer(varDecl: VarDecl,
         classType: irtpe.ClassType): Option[irt.Tree] = {
-    implicit val pos = Utils.getPosition(varDecl)
+    implicit val pos = getPosition(varDecl)
 
     val name = mangler.encodeFieldSym(varDecl.symbol)
     val tpe = typeCompiler.compileType(varDecl.varType)
@@ -195,7 +224,7 @@ class Compiler(val inits: Map[String, Expr],
     * all the static methods of `classDecl`. Instead of putting it inside the
     * compiled ast, we store it in a list and join it later. */
   def compileCompanionObject(classDecl: ClassDecl): Unit = {
-    implicit val pos = Utils.getPosition(classDecl)
+    implicit val pos = getPosition(classDecl)
 
     val oldName = classDecl.name.str
     val className = encodeClassName(oldName) + "$"
@@ -244,14 +273,18 @@ class Compiler(val inits: Map[String, Expr],
 
   /** Returns both the class and its companion object */
   def compileClassDecl(classDecl: ClassDecl): irt.ClassDef = {
-    implicit val pos = Utils.getPosition(classDecl)
+    implicit val pos = getPosition(classDecl)
 //    if (isMainClass(classDecl)) compileMainClass(classDecl)
 
     val className = encodeClassName(classDecl.name.str)
     val classType = irtpe.ClassType(className)
     val classIdent = irt.Ident(className)
 
-    val extendsCl = compileExtendsClause(classDecl.extendsCl)
+    // the classes created while desugaring are not in the hierarchy
+    val extendsCl = classes.superClass(classDecl.symbol.name) match {
+      case Some(sym) => compileSuperSymbol(Some(sym))
+      case None      => compileExtendsClause(classDecl.extendsCl)
+    }
     val superClassIdent = extendsCl._1
     val superClassType = extendsCl._2
 
@@ -292,7 +325,7 @@ class Compiler(val inits: Map[String, Expr],
   // Compile low-level nodes
 
   def compileLocalVar(varDecl: VarDecl): irt.VarDef = {
-    implicit val pos = Utils.getPosition(varDecl)
+    implicit val pos = getPosition(varDecl)
     val name = mangler.encodeLocalSym(varDecl.symbol)
 
     val tpe = typeCompiler.compileType(varDecl.varType)
@@ -305,12 +338,13 @@ class Compiler(val inits: Map[String, Expr],
   }
 
   def compileSelectIdent(expr: Expr): irt.Ident = {
-    implicit val pos = Utils.getPosition(expr)
+    implicit val pos = getPosition(expr)
     expr match {
       case Ident(sym, _, _, refVar, _) =>
         refVar match {
           case Some(VarInfo(_, mangledName, _, _)) =>
-            mangledName
+            // at the position of the reference
+            irt.Ident(mangledName.name, mangledName.originalName)
 
           case _ =>
             if (sym.isLocal) mangler.encodeLocalSym(sym)
@@ -319,7 +353,7 @@ class Compiler(val inits: Map[String, Expr],
 
 
       case _ =>
-        errorHanlder.fail(pos.line, Some("compileSelectIdent"),
+        errorHanlder.fail(pos, Some("compileSelectIdent"),
           "field access of unknown form (expected: Identifier)", Normal)
         irt.Ident("")
     }
@@ -335,13 +369,13 @@ class Compiler(val inits: Map[String, Expr],
       compileExpr(expr, exprPos)
 
     case _ =>
-      errorHanlder.fail(pos.line, Some("compileFieldAccessQualifier"),
+      errorHanlder.fail(pos, Some("compileFieldAccessQualifier"),
         s"Unknown selected tree: $selected", Fatal)
       irt.Skip()
   }
 
   def compileFieldAccess(fieldAcc: FieldAccess, exprPos: Boolean): irt.Tree = {
-    implicit val pos = Utils.getPosition(fieldAcc)
+    implicit val pos = getPosition(fieldAcc)
 
     val item = mangler.encodeFieldSym(fieldAcc.symbol)
     val classType = typeCompiler.compileType(fieldAcc.selected.tp)
@@ -372,7 +406,7 @@ class Compiler(val inits: Map[String, Expr],
   }
 
   def compileStaticAccess(ident: Ident, varDecl: VarDecl): irt.Tree = {
-    implicit val pos = Utils.getPosition(ident)
+    implicit val pos = getPosition(ident)
 
     val item = mangler.encodeFieldSym(ident.symbol)
     val classType = irtpe.ClassType(encodeClassName(ident.enclClass.get) + "$")
@@ -383,7 +417,7 @@ class Compiler(val inits: Map[String, Expr],
   }
 
   def compileIdent(ident: Ident): irt.Tree = {
-    implicit val pos = Utils.getPosition(ident)
+    implicit val pos = getPosition(ident)
     val sym = ident.symbol
     val tpe = typeCompiler.compileType(ident.tp)
     ident.refVar match {
@@ -404,49 +438,82 @@ class Compiler(val inits: Map[String, Expr],
 
   // Compiling higher-level nodes
 
-  def compileExpr(expr: Expr, exprPos: Boolean): irt.Tree = {
-    implicit val pos = Utils.getPosition(expr)
-    expr match {
-      case expr: LetExpr =>
-        ???
+  /** Reports a construct the compiler does not handle (yet) */
+  private def unsupported(tree: Tree, method: String)(
+      implicit pos: Position): irt.Literal = {
+    errorHanlder.fail(pos, Some(method),
+      s"Not supported yet: ${tree.getClass.getSimpleName}", Normal)
+    irt.Null()
+  }
 
-      case expr: Annotation =>
-        ???
+  private def isStringConcat(expr: Expr): Boolean = expr match {
+    case Binary(Tag.PLUS, _, _, tp) => Predicates.isStringType(tp)
+    case Parens(inner, _)           => isStringConcat(inner)
+    case _                          => false
+  }
 
-      case expr: AnnotatedType =>
-        ???
+  /** The operands of a chain of string concatenations, in order. A string
+    * concatenation is associative, so `a + (b + c)` is flattened as well
+    * (but not `1 + 2 + s`, whose first `+` is an addition). */
+  private def concatOperands(expr: Expr): List[Expr] = expr match {
+    case Binary(Tag.PLUS, left, right, tp) if Predicates.isStringType(tp) =>
+      concatOperands(left) ++ concatOperands(right)
 
-      case expr: Wildcard =>
-        ???
+    case Parens(inner, _) if isStringConcat(inner) =>
+      concatOperands(inner)
 
-      case expr: TypeIntersection =>
-        ???
+    case _ =>
+      List(expr)
+  }
 
-      case expr: TypeUnion =>
-        ???
+  /** Primitive operands are converted to strings by JS itself, except
+    * for `char`s (which are numbers in the IR): they are boxed, so that
+    * `toString` gives the character. */
+  private def compileConcatOperand(operand: Expr): irt.Tree = {
+    implicit val pos = getPosition(operand)
+    val operandC = compileExpr(operand, exprPos = true)
 
-      case expr: TypeApply =>
-        irt.Null() // TODO
+    operand.tp match {
+      case JExprType(jtype) if jtype.getTag == TypeTag.CHAR =>
+        irt.New(irtpe.ClassType("jl_Character"), irt.Ident("init___C"),
+          List(operandC))
+
+      case _ =>
+        operandC
+    }
+  }
 
-      case expr: ArrayTypeTree =>
-        ???
+  /** Compiles a whole chain of concatenations (`a + b + c + ...`, but also
+    * `s += a + b`, desugared to `s = s + (a + b)`) to a single JS
+    * concatenation, where every operand is converted once. */
+  def compileStringConcat(concat: Binary): irt.Tree = {
+    implicit val pos = getPosition(concat)
 
-      case expr: PrimitiveTypeTree =>
-        ???
+    concatOperands(concat).map(compileConcatOperand).reduceLeft {
+      (acc, operand) => irt.BinaryOp(irt.BinaryOp.String_+, acc, operand)
+    }
+  }
 
-      case expr: AnyTypeTree =>
-        ???
+  def compileExpr(expr: Expr, exprPos: Boolean): irt.Tree = {
+    implicit val pos = getPosition(expr)
+    (expr.nodeKind: @switch) match {
+      case NodeKind.TypeApply =>
+        irt.Null() // TODO
 
-      case expr: Literal =>
-        compileLiteral(expr)
+      case NodeKind.BooleanLiteral | NodeKind.CharLiteral |
+           NodeKind.IntLiteral | NodeKind.LongLiteral |
+           NodeKind.FloatLiteral | NodeKind.DoubleLiteral |
+           NodeKind.ClassLiteral | NodeKind.NullLiteral =>
+        compileLiteral(expr.asInstanceOf[Literal])
 
-      case expr: Ident =>
-        compileIdent(expr)
+      case NodeKind.Ident =>
+        compileIdent(expr.asInstanceOf[Ident])
 
-      case expr: FieldAccess =>
-        compileFieldAccess(expr, exprPos)
+      case NodeKind.FieldAccess =>
+        compileFieldAccess(expr.asInstanceOf[FieldAccess], exprPos)
 
-      case ArrayAccess(arrRef, indexExpr, tp) =>
+      case NodeKind.ArrayAccess =>
+        val ArrayAccess(arrRef, indexExpr, tp) = expr
         val arrRefC = compileExpr(arrRef, exprPos)
         val indexExprC = compileExpr(indexExpr, exprPos)
 //        val tTag = mangler.mangledTypeName(tp)
@@ -454,20 +521,24 @@ class Compiler(val inits: Map[String, Expr],
 
         irt.ArraySelect(arrRefC, indexExprC)(tpC)
 
-      case expr: InstanceOf =>
-        ???
+      case NodeKind.ArrayLength =>
+        irt.ArrayLength(compileExpr(expr.asInstanceOf[ArrayLength].array,
+          exprPos = true))
 
-      case expr: TypeCast =>
-        ???
-
-      case Binary(op, left, right, tp) =>
-        val opC = opCompiler.compileBinopCode(op, left.tp, right.tp)
-        val leftC = compileExpr(left, exprPos = true)
-        val rightC = compileExpr(right, exprPos = true)
+      case NodeKind.Binary =>
+        val binary@Binary(op, left, right, tp) = expr
+        if (isStringConcat(binary)) {
+          compileStringConcat(binary)
+        } else {
+          val opC = opCompiler.compileBinopCode(op, left.tp, right.tp)
+          val leftC = compileExpr(left, exprPos = true)
+          val rightC = compileExpr(right, exprPos = true)
 
-        irt.BinaryOp(opC, leftC, rightC)
+          irt.BinaryOp(opC, leftC, rightC)
+        }
 
-      case Unary(op, arg, tp) =>
+      case NodeKind.Unary =>
+        val Unary(op, arg, tp) = expr
         val opC = opCompiler.compileBinopCode(op, arg.tp, arg.tp)
         val argC = compileExpr(arg, exprPos = true)
         val binOpC = irt.BinaryOp(opC, argC, irt.IntLiteral(1))
@@ -486,25 +557,24 @@ class Compiler(val inits: Map[String, Expr],
             irt.Block(tmpVarDef, assignC, tmpVarRef)
 
           case _ =>
-            errorHanlder.fail(pos.line, Some("compileExpr: Unary"),
+            errorHanlder.fail(pos, Some("compileExpr: Unary"),
               s"Not a know unary operation: $op", Normal)
             irt.Null()
         }
 
-      case expr: AssignOp =>
-        ???
-
-      case Assign(lhs, rhs, _) =>
+      case NodeKind.Assign =>
+        val Assign(lhs, rhs, _) = expr
         val lhsC = compileExpr(lhs, exprPos = false)
         val rhsC = compileExpr(rhs, exprPos = true)
         val assignment = irt.Assign(lhsC, rhsC)
 
         irt.Block(assignment, lhsC)
 
-      case Parens(expr, _) =>
-        compileExpr(expr, exprPos)  // ???
+      case NodeKind.Parens =>
+        compileExpr(expr.asInstanceOf[Parens].expr, exprPos)
 
-      case NewArray(_, _, dims, initializers, elemType, tp) =>
+      case NodeKind.NewArray =>
+        val NewArray(_, _, dims, initializers, elemType, tp) = expr
         val initializersC = initializers.map(compileExpr(_, exprPos = true))
         val typeInfo = mangler.arrayTypeInfo(tp)
         val ndims = if (dims.isEmpty) 1 else dims.length
@@ -517,18 +587,23 @@ class Compiler(val inits: Map[String, Expr],
           irt.NewArray(irtpe.ArrayType(typeInfo._2, ndims), dimsC)
         }
 
-      case expr: PolyExpr =>
-        compilePolyExpr(expr)
+      case NodeKind.MethodInv | NodeKind.Conditional | NodeKind.NewClass |
+           NodeKind.MemberRef | NodeKind.Lambda =>
+        compilePolyExpr(expr.asInstanceOf[PolyExpr])
 
-      case et@ErrorTree(pos) =>
-        errorHanlder.fail(pos.line, Some("compileExpr"),
+      case NodeKind.ErrorTree =>
+        errorHanlder.fail(pos, Some("compileExpr"),
           "Errors found during one of the previous phases.", Fatal)
-        irt.Null()(Utils.getPosition(et))
+        irt.Null()
+
+      case _ =>
+        // LetExpr, type trees, annotations, InstanceOf, TypeCast, AssignOp
+        unsupported(expr, "compileExpr")
     }
   }
 
   def compilePolyExpr(polyExpr: PolyExpr): irt.Tree = {
-    implicit val pos = Utils.getPosition(polyExpr)
+    implicit val pos = getPosition(polyExpr)
     polyExpr match {
       case polyExpr: MethodInv =>
         compileMethodInv(polyExpr)
@@ -541,30 +616,36 @@ class Compiler(val inits: Map[String, Expr],
 
         irt.If(condC, thenpC, elsepC)(tpeC)
 
-      case nc@NewClass(ident, tArgs, args, clsBody, enclExpr, tp) =>
+      case nc@NewClass(ident, tArgs, args, clsBody, enclExpr, tp, _) =>
         val clsC = typeCompiler.compileClassType(ident)
         val ctorOpt = utils.getMatchingConstructor(nc, constructors)
         val argsC = args.map(compileExpr(_, exprPos = true))
         val ctorIdent = ctorOpt match {
-          case Some(m) => mangler.encodeMethod(m)
-          case None    => Definitions.defaultConstructorIdent
+          case Some(m) =>
+            mangler.encodeMethod(m)
+
+          case None =>
+            // only a call without arguments can be to the default one
+            if (args.nonEmpty) {
+              val className = nc.ctorSym.map(_.owner.name).getOrElse(clsC.className)
+              errorHanlder.fail(pos, Some("compilePolyExpr"),
+                s"No constructor of $className found for the call with " +
+                s"${args.length} argument(s)", Normal)
+            }
+            Definitions.defaultConstructorIdent
         }
 
         irt.New(clsC, ctorIdent, argsC)
 
-      case polyExpr: FuncExpr => polyExpr match {
-        case funcExpr: MemberRef =>
-          ???
-
-        case funcExpr: Lambda =>
-          ???
-      }
+      case funcExpr: FuncExpr =>
+        // MemberRef, Lambda
+        unsupported(funcExpr, "compilePolyExpr")
     }
   }
 
   def compileMethodSelect(methodSel: Expr, args: List[Tree],
     refDecl: Option[ScopeElem], tp: Type): irt.Tree = {
-    implicit val pos = Utils.getPosition(methodSel)
+    implicit val pos = getPosition(methodSel)
 
     refDecl match {
       case Some(methodInfo) =>
@@ -604,13 +685,13 @@ class Compiler(val inits: Map[String, Expr],
             irt.Apply(qualifier, methodName, argsC)(tpC)
 
           case other =>
-            errorHanlder.fail(pos.line, Some("compileMethodSelect"),
+            errorHanlder.fail(pos, Some("compileMethodSelect"),
               "method call of unknown form (expected: Field Access)", Normal)
-            irt.Null()(Utils.getPosition(other))
+            irt.Null()(getPosition(other))
         }
 
       case other =>
-        errorHanlder.fail(pos.line, Some("compileMethodSelect"),
+        errorHanlder.fail(pos, Some("compileMethodSelect"),
           s"failed to determine which method does the identifier ($methodSel) refer to ($refDecl).",
           Normal)
         irt.Null()
@@ -619,7 +700,7 @@ class Compiler(val inits: Map[String, Expr],
   }
 
   def compileMethodInv(methodInv: MethodInv): irt.Tree = {
-    implicit val pos = Utils.getPosition(methodInv)
+    implicit val pos = getPosition(methodInv)
 
     if (Predicates.isPrintMethodInv(methodInv)) {
       val body = compileTree(methodInv.args.head)
@@ -632,7 +713,7 @@ class Compiler(val inits: Map[String, Expr],
 
 
   def compileLiteral(lit: Literal): irt.Literal = {
-    implicit val pos = Utils.getPosition(lit)
+    implicit val pos = getPosition(lit)
     lit match {
       case BooleanLiteral(value, _) =>
         irt.BooleanLiteral(value)
@@ -659,63 +740,69 @@ class Compiler(val inits: Map[String, Expr],
         if (Predicates.isStringType(tp))
           irt.StringLiteral(value.asInstanceOf[String])
         else
-          ???
+          unsupported(lit, "compileLiteral")
     }
   }
 
   def compileStatement(stmt: Statement): irt.Tree = {
-    implicit val pos = Utils.getPosition(stmt)
-    stmt match {
-      case stmt: VarDecl =>
-        stmt.kind match {
+    implicit val pos = getPosition(stmt)
+    (stmt.nodeKind: @switch) match {
+      case NodeKind.VarDecl =>
+        val varDecl = stmt.asInstanceOf[VarDecl]
+        varDecl.kind match {
           case ClassMember =>
-            compileFieldDef(stmt)
+            compileFieldDef(varDecl)
 
           case Param =>
-            compileParam(stmt)
+            compileParam(varDecl)
 
           case LocalVar =>
-            compileLocalVar(stmt)
+            compileLocalVar(varDecl)
 
           case Method =>
-            errorHanlder.fail(pos.line, Some("compileStatement: VarDecl"),
+            errorHanlder.fail(pos, Some("compileStatement: VarDecl"),
               "Expected: Method declaration, got: Variable Declaration", Fatal)
             irt.Null()
 
           case Class =>
-            errorHanlder.fail(pos.line, Some("compileStatement: VarDecl"),
+            errorHanlder.fail(pos, Some("compileStatement: VarDecl"),
               "Expected: Method declaration, got: Class Declaration", Fatal)
             irt.Null()
         }
 
-      case stmt: ClassDecl =>
+      case NodeKind.ClassDecl =>
         // if (isMainClass(stmt)) compileMainClass(stmt)
-        compileClassDecl(stmt)
+        compileClassDecl(stmt.asInstanceOf[ClassDecl])
 
-      case stmt: Assert =>
-        ??? // TODO
-
-      case stmt: Throw =>
-        val expr = compileExpr(stmt.expr, exprPos = true)
+      case NodeKind.Throw =>
+        val expr = compileExpr(stmt.asInstanceOf[Throw].expr, exprPos = true)
 
         irt.Throw(expr)
 
-      case stmt: Return =>
-        val expr = stmt.expr.map(compileExpr(_, exprPos = true)).getOrElse(irt.Undefined())
+      case NodeKind.Return =>
+        val expr = stmt.asInstanceOf[Return].expr
+            .map(compileExpr(_, exprPos = true)).getOrElse(irt.Undefined())
         irt.Return(expr)
 
-      case stmt: Continue =>
-        val lab = stmt.label.map(name => irt.Ident(name))
+      case NodeKind.Continue =>
+        val lab = stmt.asInstanceOf[Continue].label.map(name => irt.Ident(name))
 
         irt.Continue(lab)
 
-      case stmt: Break =>
-        ??? // TODO
+      case NodeKind.Break =>
+        compileBreak(stmt.asInstanceOf[Break])
+
+      case NodeKind.LabeledStmt =>
+        compileLabeledStmt(stmt.asInstanceOf[LabeledStmt])
 
-      case ExprStatement(expr) =>
-        compileExpr(expr, exprPos = false)
+      case NodeKind.Switch =>
+        compileSwitch(stmt.asInstanceOf[Switch], None)
 
-      case If(cond, thenp, elsep) =>
+      case NodeKind.ExprStatement =>
+        compileExpr(stmt.asInstanceOf[ExprStatement].expr, exprPos = false)
+
+      case NodeKind.If =>
+        val If(cond, thenp, elsep) = stmt
         val condC = compileExpr(cond, exprPos = true)
         val thenpC = compileStatement(thenp)
         val elsepC = elsep.map(compileStatement).getOrElse(irt.Undefined())
@@ -723,96 +810,374 @@ class Compiler(val inits: Map[String, Expr],
 
         irt.If(condC, thenpC, elsepC)(tpe)
 
-      case Block(statements, _) =>
-        val statementsC = statements.map(compileStatement)
+      case NodeKind.Block =>
+        val statementsC = stmt.asInstanceOf[Block].statements.map(compileStatement)
         irt.Block(statementsC)
 
-      case stmt: TryStmt =>
-        ??? // TODO
+      case NodeKind.Skip =>
+        irt.Skip()
+
+      case NodeKind.WhileLoop =>
+        compileWhileLoop(stmt.asInstanceOf[WhileLoop], None)
+
+      case NodeKind.DoWhileLoop =>
+        compileDoWhileLoop(stmt.asInstanceOf[DoWhileLoop], None)
+
+      case NodeKind.ErrorTree =>
+        errorHanlder.fail(pos, Some("compileStatement"),
+          "Errors found during one of the previous phases.", Fatal)
+        irt.Null()
+
+      case _ =>
+        // Assert, TryStmt, Case (outside of a switch), Synchronized,
+        // EnhancedForLoop and ForLoop (desugared to WhileLoops before)
+        unsupported(stmt, "compileStatement")
+    }
+  }
+
+  // Compiling control flow
+
+  /** A statement `break`s can jump out of: a loop or a switch
+    * (`breakable`), or a labeled statement. The IR has no `break`: the
+    * statement is wrapped in a block labeled `label` that the breaks
+    * return from, if there are any (`used`). */
+  private class BreakTarget(val javaLabel: Option[String],
+      val breakable: Boolean, val label: irt.Ident) {
+    var used = false
+  }
+
+  /** The enclosing break targets, innermost first */
+  private var breakTargets: List[BreakTarget] = Nil
+
+  private def withBreakTarget(javaLabel: Option[String], breakable: Boolean)(
+      body: BreakTarget => irt.Tree)(implicit pos: Position): irt.Tree = {
+    val target = new BreakTarget(javaLabel, breakable,
+      freshLocalIdent("break"))
+    breakTargets = target :: breakTargets
+    val bodyC = try body(target) finally breakTargets = breakTargets.tail
+
+    if (target.used) irt.Labeled(target.label, irtpe.NoType, bodyC)
+    else bodyC
+  }
+
+  private def jumpTo(target: BreakTarget)(implicit pos: Position): irt.Tree = {
+    target.used = true
+    irt.Return(irt.Undefined(), Some(target.label))
+  }
 
-      case stmt: Skip =>
+  def compileBreak(break: Break): irt.Tree = {
+    implicit val pos = getPosition(break)
+
+    val target = break.label match {
+      case Some(name) => breakTargets.find(_.javaLabel.contains(name.str))
+      case None       => breakTargets.find(_.breakable)
+    }
+
+    target match {
+      case Some(t) =>
+        jumpTo(t)
+
+      case None =>
+        errorHanlder.fail(pos, Some("compileBreak"),
+          "break outside of a loop or a switch", Normal)
         irt.Skip()
+    }
+  }
 
-      case stmt: Case =>
-        ??? // TODO
+  def compileWhileLoop(whileLoop: WhileLoop, label: Option[String]): irt.Tree = {
+    implicit val pos = getPosition(whileLoop)
 
-      case stmt: Switch =>
-        ???
+    withBreakTarget(label, breakable = true) { _ =>
+      val condC = compileExpr(whileLoop.cond, exprPos = true)
+      val bodyC = compileStatement(whileLoop.body)
 
-      case stmt: Synchronized =>
-        ???
+      irt.While(condC, bodyC, label.map(irt.Ident(_)))
+    }
+  }
 
-      case stmt: LabeledStmt =>
-        ???
+  def compileDoWhileLoop(doWhileLoop: DoWhileLoop,
+      label: Option[String]): irt.Tree = {
+    implicit val pos = getPosition(doWhileLoop)
 
-      case stmt: EnhancedForLoop =>
-        ???
+    withBreakTarget(label, breakable = true) { _ =>
+      val condC = compileExpr(doWhileLoop.cond, exprPos = true)
+      val bodyC = compileStatement(doWhileLoop.body)
 
-      case stmt: ForLoop =>
-        ???
+      irt.DoWhile(bodyC, condC, label.map(irt.Ident(_)))
+    }
+  }
 
-      case WhileLoop(cond, body) =>
-        val condC = compileExpr(cond, exprPos = true)
-        val bodyC = compileStatement(body)
+  def compileLabeledStmt(labeledStmt: LabeledStmt): irt.Tree = {
+    implicit val pos = getPosition(labeledStmt)
+    val label = Some(labeledStmt.label.str)
 
-        irt.While(condC, bodyC)
+    labeledStmt.body match {
+      case whileLoop: WhileLoop =>
+        compileWhileLoop(whileLoop, label)
 
-      case DoWhileLoop(cond, body) =>
-        val condC = compileExpr(cond, exprPos = true)
-        val bodyC = compileStatement(body)
+      case doWhileLoop: DoWhileLoop =>
+        compileDoWhileLoop(doWhileLoop, label)
 
-        irt.DoWhile(bodyC, condC)
+      case switch: Switch =>
+        compileSwitch(switch, label)
 
-      case et@ErrorTree(pos) =>
-        errorHanlder.fail(pos.line, Some("compileExpr"),
-          "Errors found during one of the previous phases.", Fatal)
-        irt.Null()(Utils.getPosition(et))
+      // a desugared `for` loop: its initializers, then the loop
+      case Block(stmts, false) if stmts.nonEmpty &&
+          stmts.last.isInstanceOf[WhileLoop] =>
+        val initC = stmts.init.map(compileStatement)
+        irt.Block(initC :+ compileWhileLoop(stmts.last.asInstanceOf[WhileLoop], label))
+
+      case body =>
+        withBreakTarget(label, breakable = false)(_ => compileStatement(body))
     }
   }
 
-  def compileImport(imp: Import): irt.Tree = {
-    ??? // TODO
+  /** Consecutive cases sharing their statements: the values they match
+    * (`default` is not one of them) */
+  private case class CaseGroup(values: List[Expr], isDefault: Boolean,
+      statements: List[Statement])
+
+  private def groupCases(cases: List[Case]): List[CaseGroup] = {
+    cases.foldRight(List.empty[CaseGroup]) { (caseStmt, groups) =>
+      groups match {
+        case next :: rest if caseStmt.statements.isEmpty =>
+          next.copy(values = caseStmt.pat.toList ++ next.values,
+            isDefault = next.isDefault || caseStmt.pat.isEmpty) :: rest
+
+        case _ =>
+          CaseGroup(caseStmt.pat.toList, caseStmt.pat.isEmpty,
+            caseStmt.statements) :: groups
+      }
+    }
   }
 
-  /** Compile an expression tree into an IR `Tree`. */
-  def compileTree(tree: Tree): irt.Tree = {
-    implicit val pos = Utils.getPosition(tree)
-    tree match {
-      case tree: Import =>
-        compileImport(tree)
+  /** Whether the statements never complete normally (conservative) */
+  private def endsAbruptly(statements: List[Statement]): Boolean =
+    statements.lastOption.exists {
+      case _: Break | _: Continue | _: Return | _: Throw => true
+      case Block(stmts, _)                               => endsAbruptly(stmts)
+      case _                                             => false
+    }
+
+  private def isIntSwitch(tp: Type): Boolean = tp match {
+    case JExprType(jtype) if jtype.isPrimitive =>
+      jtype.getTag match {
+        case TypeTag.INT | TypeTag.CHAR | TypeTag.SHORT | TypeTag.BYTE => true
+        case _                                                        => false
+      }
+
+    case _ =>
+      false
+  }
+
+  /** Compiles a `switch` to an IR `Match` (a JS `switch`).
+    *
+    * If no case falls through to the next one, the statements of every
+    * case go directly to the `Match`. Otherwise the `Match` only jumps
+    * into a chain of nested labeled blocks, the statements of the cases
+    * following each other after them (`case i` returns from the block
+    * `i`, so the statements of the cases `i`, `i + 1`, ... are run).
+    *
+    * Strings are first matched on their `hashCode`, then compared with
+    * `equals`, which gives the index of the case group to switch on. */
+  def compileSwitch(switch: Switch, label: Option[String]): irt.Tree = {
+    implicit val pos = getPosition(switch)
+    val selectorTp = switch.selector.tp
+
+    if (isIntSwitch(selectorTp)) {
+      val selectorC = compileExpr(switch.selector, exprPos = true)
+      withBreakTarget(label, breakable = true) { target =>
+        compileCaseGroups(selectorC, groupCases(switch.cases), target)
+      }
+    } else if (Predicates.isStringType(selectorTp)) {
+      withBreakTarget(label, breakable = true) { target =>
+        compileStringSwitch(switch, target)
+      }
+    } else {
+      errorHanlder.fail(pos, Some("compileSwitch"),
+        s"Not supported yet: switch on values of type $selectorTp " +
+        "(only int, char, short, byte and String)", Normal)
+      irt.Skip()
+    }
+  }
+
+  private def caseLiteral(value: Expr): irt.Literal = value match {
+    case lit: Literal =>
+      compileLiteral(lit)
+
+    case other =>
+      implicit val pos = getPosition(other)
+      unsupported(other, "compileSwitch: case")
+  }
+
+  private def compileCaseGroups(selectorC: irt.Tree, groups: List[CaseGroup],
+      target: BreakTarget)(implicit pos: Position): irt.Tree = {
+    compileCaseGroups(selectorC, groups.map(_.values.map(caseLiteral)),
+      groups, target)
+  }
+
+  /** The locals declared directly in the cases are visible in the
+    * following ones: they are declared before the `Match` and their
+    * declarations in the cases become assignments. */
+  private def compileCaseStatement(stmt: Statement): irt.Tree = stmt match {
+    case varDecl: VarDecl if varDecl.kind == LocalVar =>
+      implicit val pos = getPosition(varDecl)
+      val tpe = typeCompiler.compileType(varDecl.varType)
+      val ref = irt.VarRef(mangler.encodeLocalSym(varDecl.symbol))(tpe)
 
-      case tree: MethodDecl =>
-        compileMethodDecl(tree)
+      varDecl.init.map(init =>
+        irt.Assign(ref, compileExpr(init, exprPos = true))).getOrElse(irt.Skip())
 
-      case tree: TypeParam =>
-        ???
+    case _ =>
+      compileStatement(stmt)
+  }
+
+  private def caseLocals(groups: List[CaseGroup]): List[irt.Tree] = {
+    groups.flatMap(_.statements) collect {
+      case varDecl: VarDecl if varDecl.kind == LocalVar =>
+        compileLocalVar(varDecl.copy(init = None)(varDecl.pos))
+    }
+  }
+
+  /** `literals` are the values matched by each of the groups */
+  private def compileCaseGroups(selectorC: irt.Tree,
+      literals: List[List[irt.Literal]], groups: List[CaseGroup],
+      target: BreakTarget)(implicit pos: Position): irt.Tree = {
+    irt.Block(caseLocals(groups) :+
+      compileCaseDispatch(selectorC, literals, groups, target))
+  }
+
+  private def compileCaseDispatch(selectorC: irt.Tree,
+      literals: List[List[irt.Literal]], groups: List[CaseGroup],
+      target: BreakTarget)(implicit pos: Position): irt.Tree = {
+    val indexed = literals.zip(groups).zipWithIndex
+    val fallsThrough = groups.init.exists(g => !endsAbruptly(g.statements))
+
+    if (!fallsThrough) {
+      def compileGroup(group: CaseGroup): irt.Tree = {
+        // the last `break` of a case is implied by the `Match`
+        val stmts = group.statements match {
+          case init :+ Break(None) => init
+          case stmts               => stmts
+        }
+        irt.Block(stmts.map(compileCaseStatement))
+      }
+
+      // the values of the default group need no case of their own
+      val cases = indexed.collect {
+        case ((lits, group), _) if !group.isDefault && lits.nonEmpty =>
+          (lits, compileGroup(group))
+      }
+      val default = groups.find(_.isDefault).map(compileGroup)
+          .getOrElse(irt.Skip())
+
+      irt.Match(selectorC, cases, default)(irtpe.NoType)
+    } else {
+      val entries = groups.map(_ => freshLocalIdent("case"))
+      def jump(i: Int): irt.Tree = irt.Return(irt.Undefined(), Some(entries(i)))
+
+      val cases = indexed.collect {
+        case ((lits, group), i) if !group.isDefault && lits.nonEmpty =>
+          (lits, jump(i))
+      }
+      val default = groups.indexWhere(_.isDefault) match {
+        case -1 => jumpTo(target)
+        case i  => jump(i)
+      }
+      val dispatch = irt.Match(selectorC, cases, default)(irtpe.NoType)
 
-      case tree: CatchTree =>
-        ???
+      groups.zip(entries).foldLeft(dispatch: irt.Tree) {
+        case (inner, (group, entry)) =>
+          irt.Block(irt.Labeled(entry, irtpe.NoType, inner) ::
+            group.statements.map(compileCaseStatement))
+      }
+    }
+  }
+
+  private def compileStringSwitch(switch: Switch, target: BreakTarget)(
+      implicit pos: Position): irt.Tree = {
+    val stringType = typeCompiler.compileType(switch.selector.tp)
+    val groups = groupCases(switch.cases)
+
+    val selector = freshLocalIdent("selector")
+    val selectorDef = irt.VarDef(selector, stringType, mutable = false,
+      compileExpr(switch.selector, exprPos = true))
+    val index = freshLocalIdent("index")
+    val indexDef = irt.VarDef(index, irtpe.IntType, mutable = true,
+      irt.IntLiteral(-1))
+
+    val strings = for {
+      (group, i) <- groups.zipWithIndex
+      value      <- group.values
+    } yield {
+      caseLiteral(value) match {
+        case irt.StringLiteral(str) => (str, i)
+        case _                      => ("", i)  // reported by `caseLiteral`
+      }
+    }
+
+    val selectorRef = irt.VarRef(selector)(stringType)
+    val buckets = strings.groupBy(_._1.hashCode).toList.sortBy(_._1) map {
+      case (hash, entries) =>
+        val setIndex = entries.foldRight(irt.Skip(): irt.Tree) {
+          case ((str, i), otherwise) =>
+            val isEqual = irt.Apply(selectorRef, irt.Ident("equals__O__Z"),
+              List(irt.StringLiteral(str)))(irtpe.BooleanType)
+            irt.If(isEqual, irt.Assign(irt.VarRef(index)(irtpe.IntType),
+              irt.IntLiteral(i)), otherwise)(irtpe.NoType)
+        }
+        (List(irt.IntLiteral(hash)), setIndex)
+    }
+    val hashCode = irt.Apply(selectorRef, irt.Ident("hashCode__I"),
+      Nil)(irtpe.IntType)
+    val findIndex = irt.Match(hashCode, buckets, irt.Skip())(irtpe.NoType)
 
-      case tree: Expr =>
-        compileExpr(tree, exprPos = true)
+    val indexLiterals = groups.zipWithIndex.map {
+      case (group, i) => if (group.values.isEmpty) Nil else List(irt.IntLiteral(i))
+    }
+    val dispatch = compileCaseGroups(irt.VarRef(index)(irtpe.IntType),
+      indexLiterals, groups, target)
+
+    irt.Block(List(selectorDef, indexDef, findIndex, dispatch))
+  }
 
-      case tree: Statement =>
-        compileStatement(tree)
+  /** Imports are resolved by javac, there is nothing to emit */
+  def compileImport(imp: Import): irt.Tree =
+    irt.Skip()(getPosition(imp))
 
-      case EmptyTree() =>
+  /** Compile an expression tree into an IR `Tree`. */
+  def compileTree(tree: Tree): irt.Tree = {
+    implicit val pos = getPosition(tree)
+    val kind = tree.nodeKind
+    (kind: @switch) match {
+      case NodeKind.Import =>
+        compileImport(tree.asInstanceOf[Import])
+
+      case NodeKind.MethodDecl =>
+        compileMethodDecl(tree.asInstanceOf[MethodDecl])
+
+      case NodeKind.EmptyTree =>
         irt.Null()
 
-      case tree: CompilationUnit =>
-        errorHanlder.fail(pos.line, Some("compileTree"),
+      case NodeKind.CompilationUnit =>
+        errorHanlder.fail(pos, Some("compileTree"),
           "Cannot have nested compilation units", Fatal)
         irt.Null()
 
       case _ =>
-        errorHanlder.fail(pos.line, Some("compileTree"),
-          s"Found unknown tree: $tree", Fatal)
-        irt.Null()
+        if (NodeKind.isExpr(kind) || kind == NodeKind.ErrorTree)
+          compileExpr(tree.asInstanceOf[Expr], exprPos = true)
+        else if (NodeKind.isStatement(kind))
+          compileStatement(tree.asInstanceOf[Statement])
+        else
+          // TypeParam, CatchTree, Modifiers
+          unsupported(tree, "compileTree")
     }
   }
 
   def compile(compilationUnit: CompilationUnit): (List[irt.ClassDef], Option[String]) = {
-    implicit val pos = Utils.getPosition(compilationUnit)
+    sourceFile = compilationUnit.sourceFile
+    implicit val pos = getPosition(compilationUnit)
 
     companionObjects = Nil
 
@@ -820,7 +1185,7 @@ class Compiler(val inits: Map[String, Expr],
     val decls = compilationUnit.typeDecls.map({
       case c: ClassDecl => compileClassDecl(c)
       case _            =>
-        errorHanlder.fail(pos.line, Some("compile"), "only class declarations" +
+        errorHanlder.fail(pos, Some("compile"), "only class declarations" +
             "allowed at top-level", Fatal)
         irt.ClassDef(irt.Ident(""), ir.ClassKind.Class, None, Nil, None, Nil)(
           OptimizerHints.empty)
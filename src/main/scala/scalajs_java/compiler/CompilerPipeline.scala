@@ -1,111 +1,330 @@
 package scalajs_java.compiler
 
+import java.io.File
+
 import scala.language.postfixOps
-import com.sun.tools.javac.tree.JCTree.JCCompilationUnit
+import com.sun.tools.javac.tree.JCTree.{JCCompilationUnit, JCMethodDecl}
 import org.scalajs.core.ir.Trees
-import org.scalajs.core.tools.logging.{NullLogger, ScalaConsoleLogger}
+import org.scalajs.core.tools.io.{VirtualJSFile, VirtualScalaJSIRFile}
+import org.scalajs.core.tools.linker.{Linker => ScalaJSLinker}
+import org.scalajs.core.tools.logging.{Logger, NullLogger, ScalaConsoleLogger}
 import org.scalajs.jsenv.ConsoleJSConsole
 
 import scala.collection.JavaConversions._
+import scala.collection.mutable
+import scala.collection.parallel.{CompositeThrowable, ForkJoinTaskSupport}
+import scala.concurrent.forkjoin.ForkJoinPool
 import scalajs_java._
+import scalajs_java.compiler.passes.ConstructorPass.ConstructorsT
 import scalajs_java.compiler.passes._
 import scalajs_java.runtime.{Config, Linker, Runner}
-import scalajs_java.utils.scope.Scope
-import scalajs_java.utils.{CompilerPhase, ErrorHandler, Fatal}
+import scalajs_java.traversals.{DependencyTraverse, ReachabilityScan}
+import scalajs_java.trees.{CompilationUnit, Expr, Interner}
+import scalajs_java.utils.scope.{ClassHierarchy, Scope, ScopeState}
+import scalajs_java.utils.{CompilationFailed, CompilerPhase, ErrorHandler, Fatal, Mangler, Metrics}
 
-/** Aggregates all the passes into a single command */
-class CompilerPipeline(verbose: Boolean=Config.verbose) {
+/** Aggregates all the passes into a single command
+  *
+  * @param middleEndThreads number of threads compiling the units after
+  *                         javac (see `Config.middleEndThreads`) */
+class CompilerPipeline(verbose: Boolean=Config.verbose,
+    middleEndThreads: Int=Config.middleEndThreads) {
 
   val errorHandler = new ErrorHandler(CompilerPhase("Post-compile"))
 
   /** Compiles java CompilationUnit into a list of IR trees */
   def runPasses(compilationUnits: List[JCCompilationUnit]): (List[Trees.ClassDef], String) = {
+    val interner = new Interner
+    val reachable = reachability(compilationUnits)
     val trees = compilationUnits.map { cu =>
-      new JTraversePass(verbose).run(cu)
+      new JTraversePass(verbose, interner, reachable = reachable).run(cu)
+    }
+
+    val (opTrees, scope, classes) = collectSymbols(trees)
+
+    val defsObjNames = compileUnits(opTrees, scope, classes, interner).unzip
+
+    (defsObjNames._1.flatten, mainObject(defsObjNames._2.flatten))
+  }
+
+  /** Tells which methods can be called (see `ReachabilityScan`): the
+    * bodies of the others are not converted. All of them are considered
+    * reachable if `Config.pruneUnreachable` is off. */
+  private def reachability(
+      compilationUnits: List[JCCompilationUnit]): JCMethodDecl => Boolean = {
+    if (Config.pruneUnreachable) {
+      val scan = Metrics.measure("Reachability", "<project>") {
+        new ReachabilityScan(compilationUnits)
+      }
+      scan.isReachable
+    } else {
+      _ => true
     }
+  }
 
-    val treesScopes = trees.map { t =>
+  /** Maps `f` over the compilation units, in parallel if enabled
+    * (see `middleEndThreads`). The order of the results is the
+    * order of the units, so the output does not depend on scheduling.
+    *
+    * If several units fail, the parallel collection throws all their
+    * exceptions at once: a compilation failure (the errors have already
+    * been reported) is thrown on its own, as in the sequential case. */
+  private def perUnit[A, B](units: List[A])(f: A => B): List[B] = {
+    if (middleEndThreads > 1 && units.lengthCompare(1) > 0) {
+      val parUnits = units.par
+      parUnits.tasksupport = CompilerPipeline.taskSupport(middleEndThreads)
+      try {
+        parUnits.map(f).toList
+      } catch {
+        case e: CompositeThrowable =>
+          throw e.throwables.collectFirst {
+            case failed: CompilationFailed => failed
+          }.getOrElse(e)
+      }
+    } else {
+      units.map(f)
+    }
+  }
+
+  /** Collects the symbols exported by the given trees into a single scope
+    * and indexes the classes they declare */
+  def collectSymbols(trees: List[CompilationUnit]): (List[CompilationUnit], ScopeState, ClassHierarchy) = {
+    val treesScopes = perUnit(trees) { t =>
       val expSymsPass = new ExpSymsPass(verbose)
       expSymsPass.run(t)
       (t, expSymsPass.scope)
     } unzip
 
-    val opTrees1 = treesScopes._1
-    val scope = Scope.mkScope(treesScopes._2)
-    val classes = Scope.getClasses(scope)
-
-    val opTrees2 = opTrees1.map { t =>
-      new DesugarPass(verbose, classes).run(t)
+    val classes = Metrics.measure("Class hierarchy", "<project>") {
+      ClassHierarchy(treesScopes._1)
     }
 
-    val taggedTrees = opTrees2.map { ot =>
-      new RefTagPass(verbose, scope).run(ot)
-    }
+    (treesScopes._1, Scope.mkScope(Scope.empty :: treesScopes._2), classes)
+  }
 
-    val erasedTrees = taggedTrees.map { tt =>
-      new ErasurePass(verbose).run(tt)
+  /** Runs all the passes after the symbol collection on the given trees.
+    *
+    * Every unit gets its own instances of the passes (and so of their
+    * error handlers, manglers and compiler state) and its own copy of
+    * the scope (which is updated during the traversal), so the units can
+    * be compiled in parallel. Nothing has to be merged in between: the
+    * constructors of other units are found in the class hierarchy.
+    * `interner` is the one the trees were built with (the desugaring
+    * refers to the same symbols).
+    *
+    * Returns the IR class definitions and the main object (if any)
+    * of every compilation unit. */
+  def compileUnits(trees: List[CompilationUnit], scope: ScopeState,
+      classes: ClassHierarchy,
+      interner: Interner): List[(List[Trees.ClassDef], Option[String])] = {
+    perUnit(trees) { t =>
+      compileTaggedUnit(tagUnit(t, scope, classes, interner), classes)
     }
+  }
 
-    val fullTrees = taggedTrees.map { tt =>
-      new EnclClassPass(verbose).run(tt)
-    }
+  /** Constant folding, desugaring, tagging and constructor collection
+    * of a single unit */
+  private def tagUnit(tree: CompilationUnit, scope: ScopeState,
+      classes: ClassHierarchy, interner: Interner): CompilerPipeline.TaggedUnit = {
+    val folded = new ConstFoldPass(verbose).run(tree)
+    val desugared = new DesugarPass(verbose, classes, interner).run(folded)
 
-    val initLists = fullTrees.map { ft =>
-      val sip = new StaticInitsPass(verbose)
-      sip.run(ft)
-      sip.inits
-    }
+    // the local names given while tagging are reused by the compiler
+    val mangler = new Mangler
+    val tp = new TaggingPass(verbose, scope.copy(), mangler)
+    val tagged = tp.run(desugared)
 
-    val constructorsRes = fullTrees.map { ft =>
-      val cp = new ConstructorPass(verbose)
-      val tree = cp.run(ft)
-      (tree, cp.constructors)
-    } unzip
+    val cp = new ConstructorPass(verbose)
+    val res = cp.run(tagged)
+    CompilerPipeline.TaggedUnit(res, tp.inits, cp.constructors, mangler)
+  }
 
-    val constructorTrees = constructorsRes._1
-    val constructors = ConstructorPass.mkConstructors(constructorsRes._2)
+  private def compileTaggedUnit(unit: CompilerPipeline.TaggedUnit,
+      classes: ClassHierarchy): (List[Trees.ClassDef], Option[String]) = {
+    val (defs, mainObject) =
+      new CompilerPass(unit.inits, classes, unit.constructors, verbose,
+        unit.mangler).run(unit.tree)
 
-    val irs = (constructorTrees zip initLists).map { ct =>
-      new CompilerPass(ct._2, classes, constructors, verbose).run(ct._1)
+    val adaptedDefs = defs.map { fd =>
+      new BoxElimPass(verbose).run(new AdaptPass(verbose).run(fd))
     }
+    (adaptedDefs, mainObject)
+  }
+
+  /** Like `runPasses`, but keeps only one unit in memory at a time.
+    *
+    * The symbols and classes are first collected from the
+    * signatures of the units (without method bodies). Then every unit is
+    * converted, pushed through the remaining passes and compiled on its
+    * own, and its javac trees are released right after the conversion,
+    * so only the IR of the units compiled so far stays alive. */
+  def runPassesStreaming(javaCompiler: CompilerInterface): (List[Trees.ClassDef], String) = {
+    val unitCount = javaCompiler.compilationUnits.size
+    val interner = new Interner
+
+    val (_, scope, classes) = collectSymbols(
+      javaCompiler.compilationUnits.toList.map { cu =>
+        new JTraversePass(verbose, interner, signaturesOnly = true).run(cu)
+      })
+
+    val reachable = reachability(javaCompiler.compilationUnits.toList)
 
-    val defsObjNames = irs.unzip
+    val defsObjNames = (0 until unitCount).toList.map { i =>
+      val tree = new JTraversePass(verbose, interner, reachable = reachable).run(
+        javaCompiler.compilationUnits.get(i))
+      javaCompiler.releaseUnit(i)
 
-    val mainObjects = defsObjNames._2.collect { case Some(x) => x }
+      compileTaggedUnit(tagUnit(tree, scope, classes, interner), classes)
+    } unzip
+
+    (defsObjNames._1.flatten, mainObject(defsObjNames._2.flatten))
+  }
+
+  private def mainObject(mainObjects: List[String]): String = {
     if (mainObjects.length > 1)
       errorHandler.fail(0, Some("run"), "Multiple main classes detected", Fatal)
     if (mainObjects.isEmpty)
       errorHandler.fail(0, Some("run"), "No main class detected", Fatal)
 
-    val flatDefs = defsObjNames._1.flatten
-    val adaptedDefs = flatDefs.map { fd =>
-      new AdaptPass(verbose).run(fd)
+    mainObjects.head
+  }
+
+  /** Compiles and links a project using the given javac instance.
+    *
+    * Returns the linked JavaScript and the name of the main object,
+    * or `None` if javac reported errors (those are printed).
+    *
+    * If a cache is given, only the units that changed since the last
+    * build (or depend on the ones that changed) are recompiled. */
+  def compileProject(javaCompiler: CompilerInterface, project: String,
+      logger: Logger, linker: ScalaJSLinker = Linker.newLinker(),
+      cache: Option[IncrementalCache] = None): Option[(VirtualJSFile, String)] = {
+    Metrics.reset()
+    Mangler.reset()
+
+    val compiled = cache match {
+      case Some(c) => compileIncremental(javaCompiler, project, c)
+      case None    => compileAll(javaCompiler, project)
     }
 
-    (adaptedDefs, mainObjects.head)
+    val linked = compiled.map { case (irFiles, mainObjectName) =>
+      (Linker.linkIRFiles(irFiles, logger, linker), mainObjectName)
+    }
+
+    Metrics.report()
+    linked
   }
 
-  def run(project: String): Unit = {
+  /** The diagnostics themselves have already been printed by the sink */
+  private def reportErrors(javaCompiler: CompilerInterface): Boolean = {
+    if (javaCompiler.errCount > 0)
+      println(s"${javaCompiler.errCount} javac error(s)")
+
+    javaCompiler.errCount > 0
+  }
+
+  private def compileAll(javaCompiler: CompilerInterface,
+      project: String): Option[(List[VirtualScalaJSIRFile], String)] = {
+    if (Config.frontEndThreads > 1)
+      javaCompiler.compileProjectParallel(project, Config.frontEndThreads)
+    else
+      javaCompiler.compileProject(project)
+    if (reportErrors(javaCompiler))
+      return None
+
+    val compResults =
+      if (Config.streaming) runPassesStreaming(javaCompiler)
+      else runPasses(javaCompiler.compilationUnits.toList)
+
+    Some((compResults._1.map(Linker.mkIRFile), compResults._2))
+  }
+
+  private def compileIncremental(javaCompiler: CompilerInterface,
+      project: String, cache: IncrementalCache): Option[(List[VirtualScalaJSIRFile], String)] = {
+    val sources = javaCompiler.listSources(project).toList
+    val fingerprints = sources.map(src => src -> cache.fingerprint(src)).toMap
+    val dirty = cache.invalidated(fingerprints)
+
+    // nothing to compile: all the units are taken from the cache
+    val records = if (dirty.isEmpty) {
+      Some(Nil)
+    } else {
+      javaCompiler.compileProject(project, setAsJavaSet(dirty))
+      if (reportErrors(javaCompiler))
+        None
+      else
+        Some(recompile(javaCompiler.compilationUnits.toList, dirty, fingerprints, cache))
+    }
+
+    records.map { recs =>
+      cache.update(fingerprints, recs)
+      val mainObjects = sources.flatMap(src => cache.get(src).toList.flatMap(_.mainObject))
+      (sources.flatMap(src => cache.get(src).toList.flatMap(_.irFiles)),
+          mainObject(mainObjects))
+    }
+  }
 
-    val javaCompiler = new CompilerInterface()
-    javaCompiler.compileProject(project)
-    if (javaCompiler.errCount > 0) {
-      println()
-      println(javaCompiler.formatErrors())
-      return
+  /** Compiles the dirty units. The clean ones are only traversed for their
+    * signatures (to know the classes, members and constructors they declare). */
+  private def recompile(compilationUnits: List[JCCompilationUnit],
+      dirty: Set[String], fingerprints: Map[String, String],
+      cache: IncrementalCache): List[UnitRecord] = {
+    val (dirtyUnits, cleanUnits) =
+      compilationUnits.partition(cu => dirty(cu.sourcefile.getName))
+
+    val interner = new Interner
+    val dirtyTrees = dirtyUnits.map { cu =>
+      new JTraversePass(verbose, interner).run(cu)
+    }
+    val cleanTrees = cleanUnits.map { cu =>
+      new JTraversePass(verbose, interner, signaturesOnly = true).run(cu)
+    }
+
+    val (_, scope, classes) = collectSymbols(dirtyTrees ++ cleanTrees)
+    val results = compileUnits(dirtyTrees, scope, classes, interner)
+
+    (dirtyUnits, dirtyTrees, results).zipped.map { case (cu, tree, (defs, mainObj)) =>
+      val deps = new DependencyTraverse
+      deps.traverse(tree)
+
+      val source = cu.sourcefile.getName
+      UnitRecord(source, fingerprints(source), deps.declared, deps.referenced,
+        defs.map(Linker.mkIRFile), mainObj)
     }
+  }
 
-    val compResults = runPasses(javaCompiler.compilationUnits.toList)
-    val defs = compResults._1
-    val mainObjectName = compResults._2
+  def run(project: String): Unit = {
+    val cache = Config.cacheDir.map(dir => IncrementalCache.load(new File(dir)))
 
-    val linked = Linker.link(defs, new ScalaConsoleLogger)
+    compileProject(new CompilerInterface(), project, new ScalaConsoleLogger,
+        cache = cache) match {
+      case Some((linked, mainObjectName)) =>
+        // Clearly separate the output of the program from the compiling logs
+        println()
+        println()
 
-    // Clearly separate the output of the program from the compiling logs
-    println()
-    println()
+        Runner.run(mainObjectName, linked, NullLogger, ConsoleJSConsole)
 
-    Runner.run(mainObjectName, linked, NullLogger, ConsoleJSConsole)
+      case None =>
+        ()
+    }
   }
 
 }
+
+object CompilerPipeline {
+
+  /** A unit after the tagging passes: its tree, its static initializers,
+    * its constructors and the mangler that named its local variables */
+  private case class TaggedUnit(tree: CompilationUnit, inits: Map[String, Expr],
+      constructors: ConstructorsT, mangler: Mangler)
+
+  private val taskSupports = mutable.HashMap.empty[Int, ForkJoinTaskSupport]
+
+  /** Shared by all the pipelines with the same number of threads
+    * (the daemon creates one per request) */
+  def taskSupport(threads: Int): ForkJoinTaskSupport = synchronized {
+    taskSupports.getOrElseUpdate(threads,
+      new ForkJoinTaskSupport(new ForkJoinPool(threads)))
+  }
+}
@@ -0,0 +1,190 @@
+package scalajs_java.compiler
+
+import java.io._
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Paths}
+import java.security.MessageDigest
+
+import org.scalajs.core.ir
+import org.scalajs.core.tools.io.{FileVirtualScalaJSIRFile, VirtualScalaJSIRFile}
+
+import scala.io.Source
+import scalajs_java.runtime.Config
+
+/** What we remember about a compilation unit between two builds. */
+case class UnitRecord(source: String,
+                      fingerprint: String,
+                      declaredClasses: Set[String],
+                      dependencies: Set[String],
+                      irFiles: List[VirtualScalaJSIRFile],
+                      mainObject: Option[String])
+
+/** State of the incremental compilation of a single project.
+  *
+  * Every source is fingerprinted by the hash of its contents. A unit has
+  * to be recompiled if its fingerprint changed or if it (transitively)
+  * depends on a class declared in a unit that changed or was removed.
+  * All the other units reuse the IR produced by the previous build.
+  *
+  * If a directory is given, the cache is also kept on disk (see
+  * `IncrementalCache.load`), so that it survives between compiler runs.
+  */
+class IncrementalCache(val directory: Option[File] = None) {
+
+  private var units: Map[String, UnitRecord] = Map.empty
+
+  def records: Iterable[UnitRecord] = units.values
+
+  def get(source: String): Option[UnitRecord] = units.get(source)
+
+  def fingerprint(source: String): String = {
+    val digest = MessageDigest.getInstance("SHA-1")
+    val hash = digest.digest(Files.readAllBytes(Paths.get(source)))
+    hash.map("%02x".format(_)).mkString
+  }
+
+  /** Computes the sources that need to be recompiled.
+    *
+    * @param fingerprints fingerprints of all the current sources */
+  def invalidated(fingerprints: Map[String, String]): Set[String] = {
+    val changed = fingerprints.keySet.filter { source =>
+      units.get(source).forall(_.fingerprint != fingerprints(source))
+    }
+    val removed = units.keySet -- fingerprints.keySet
+
+    var dirty = changed
+    var changedClasses =
+      (changed ++ removed).flatMap(src => units.get(src).toList.flatMap(_.declaredClasses))
+
+    while (changedClasses.nonEmpty) {
+      val dependents = units.values.filter { record =>
+        fingerprints.contains(record.source) && !dirty(record.source) &&
+          record.dependencies.exists(changedClasses)
+      }
+
+      dirty ++= dependents.map(_.source)
+      changedClasses = dependents.flatMap(_.declaredClasses).toSet
+    }
+
+    dirty
+  }
+
+  /** Stores the results of a (successful) build. Nothing is written if
+    * no unit was compiled nor removed: the IR files that the linker
+    * reads (and caches by version) are left untouched. */
+  def update(fingerprints: Map[String, String],
+             compiled: List[UnitRecord]): Unit = {
+    val kept = units.filterKeys(fingerprints.contains)
+    val changed = compiled.nonEmpty || kept.size != units.size
+    units = kept ++ compiled.map(record => record.source -> record)
+
+    if (changed)
+      directory.foreach(save(_, compiled))
+  }
+
+  /** Writes the IR (info and tree, as in a `.sjsir` file) of the units
+    * compiled in this build and the index of all the units. The IR files of
+    * the units are stored in a directory named after their fingerprint. */
+  private def save(dir: File, compiled: List[UnitRecord]): Unit = {
+    dir.mkdirs()
+    for (record <- compiled) {
+      val unitDir = new File(dir, record.fingerprint)
+      unitDir.mkdirs()
+      for (irFile <- record.irFiles) {
+        val (info, tree) = irFile.infoAndTree
+        val out = new BufferedOutputStream(
+          new FileOutputStream(new File(unitDir, info.encodedName + ".sjsir")))
+        try {
+          ir.InfoSerializers.serialize(out, info)
+          ir.Serializers.serialize(out, tree)
+        } finally {
+          out.close()
+        }
+      }
+    }
+
+    val writer = new PrintWriter(new OutputStreamWriter(
+      new FileOutputStream(new File(dir, IncrementalCache.IndexFile)),
+      StandardCharsets.UTF_8))
+    try {
+      writer.println(Config.cacheVersion)
+      for (record <- units.values) {
+        val irNames = record.irFiles.map(f => new File(f.path).getName.stripSuffix(".sjsir"))
+        writer.println(List(record.source, record.fingerprint,
+          record.mainObject.getOrElse(""),
+          record.declaredClasses.mkString(IncrementalCache.ListSep),
+          record.dependencies.mkString(IncrementalCache.ListSep),
+          irNames.mkString(IncrementalCache.ListSep)).mkString("\t"))
+      }
+    } finally {
+      writer.close()
+    }
+
+    // remove the IR of the units that changed or were removed (only from
+    // the directories of the cache, the others are not ours)
+    val live = units.values.map(_.fingerprint).toSet
+    for (unitDir <- Option(dir.listFiles).toList.flatten
+         if unitDir.isDirectory && IncrementalCache.isFingerprint(unitDir.getName) &&
+           !live(unitDir.getName)) {
+      Option(unitDir.listFiles).toList.flatten.foreach(_.delete())
+      unitDir.delete()
+    }
+  }
+
+  private def restore(records: List[UnitRecord]): Unit =
+    units = records.map(record => record.source -> record).toMap
+
+  def clear(): Unit =
+    units = Map.empty
+}
+
+object IncrementalCache {
+
+  private val IndexFile = "index"
+
+  private val ListSep = ","
+
+  /** Whether a name is a fingerprint (a hex SHA-1 hash) */
+  private def isFingerprint(name: String): Boolean =
+    name.matches("[0-9a-f]{40}")
+
+  private def splitList(str: String): List[String] =
+    str.split(ListSep).toList.filter(_.nonEmpty)
+
+  /** Loads the cache kept in `dir` (an empty one if there is none, or if it
+    * was written by another version of the compiler or of the IR).
+    *
+    * The IR is read back through `FileVirtualScalaJSIRFile`s, which carry
+    * the version of the file, so neither the passes nor the class infos
+    * have to be computed again for the classes that did not change. */
+  def load(dir: File): IncrementalCache = {
+    val cache = new IncrementalCache(Some(dir))
+    val index = new File(dir, IndexFile)
+
+    if (index.isFile) {
+      val source = Source.fromFile(index, "UTF-8")
+      try {
+        val lines = source.getLines().toList
+        if (lines.headOption.contains(Config.cacheVersion)) {
+          val records = lines.tail.map(_.split("\t", -1)).collect {
+            case Array(src, fingerprint, mainObj, declared, deps, irNames) =>
+              val irFiles = splitList(irNames).map { name =>
+                new FileVirtualScalaJSIRFile(
+                  new File(new File(dir, fingerprint), name + ".sjsir"))
+              }
+              UnitRecord(src, fingerprint, splitList(declared).toSet,
+                splitList(deps).toSet, irFiles,
+                if (mainObj.isEmpty) None else Some(mainObj))
+          }
+
+          if (records.forall(_.irFiles.forall(_.exists)))
+            cache.restore(records)
+        }
+      } finally {
+        source.close()
+      }
+    }
+
+    cache
+  }
+}
@@ -31,13 +31,13 @@ class TypeCompiler(mangler: Mangler, errorHanlder: ErrorHandler) {
     case TypeTag.LONG    => irtpe.LongType
     case TypeTag.SHORT   => irtpe.IntType
     case TypeTag.VOID    => irtpe.NoType
-    case _               => errorHanlder.fail(pos.line,
+    case _               => errorHanlder.fail(pos,
       Some("compilePrimitiveType"), s"Not a primitive type: $tTag", Normal)
       irtpe.NoType
   }
 
   def compileClassType(tpe: JType): irtpe.Type =
-    mangler.encodeClassType(Symbol.fromJava(tpe.tsym))
+    irtpe.ClassType(mangler.encodeClassName(Symbol.javaName(tpe.tsym)))
 
   def compileArrayType(tpe: JType)(implicit pos: Position): irtpe.Type = {
     val tTag = mangler.arrayTypeTag(tpe.toString)
@@ -101,7 +101,7 @@ class TypeCompiler(mangler: Mangler, errorHanlder: ErrorHandler) {
     else if (tpe.toString.endsWith("[][]")) 2
     else if (tpe.toString.endsWith("[]")) 1
     else {
-      errorHanlder.fail(pos.line, Some("getArrayDims"),
+      errorHanlder.fail(pos, Some("getArrayDims"),
           "Can only compile arrays up to 5 dimenstions", Normal)
       0
     }
@@ -131,7 +131,7 @@ class TypeCompiler(mangler: Mangler, errorHanlder: ErrorHandler) {
       compileClassType(ta.tpe)
 
     case _ =>
-      errorHanlder.fail(pos.line, Some("compileClassType"),
+      errorHanlder.fail(pos, Some("compileClassType"),
         s"[compileClassType] Not a class type tree: ${typeTree.toString}",
         Fatal)
       irtpe.ClassType("")
@@ -149,6 +149,9 @@ class TypeCompiler(mangler: Mangler, errorHanlder: ErrorHandler) {
       case PrimitiveTypeTree(_, tTag, _) =>
         compilePrimitiveType(tTag)
 
+      case _: AnyTypeTree =>
+        irtpe.AnyType
+
       case aType@ArrayTypeTree(elemType, _) =>
         val dims = getArrayDims(aType)
         val tname = mangler.mangleType(getArrayElemType(elemType))
@@ -165,7 +168,7 @@ class TypeCompiler(mangler: Mangler, errorHanlder: ErrorHandler) {
         compileClassType(ta.tpe)
 
       case _ =>
-        errorHanlder.fail(pos.line, Some("compileType"),
+        errorHanlder.fail(pos, Some("compileType"),
           s"Missing implementation (trying to compile: $tpe)", Fatal)
         null
     }
@@ -1,53 +1,35 @@
 package scalajs_java.compiler
 
+import java.net.URI
+
 import com.sun.tools.javac.code.TypeTag
 import org.scalajs.core.ir.{Position, Types => irtpe}
 
 import scalajs_java.compiler.passes.ConstructorPass.ConstructorsT
-import scalajs_java.runtime.Config
 import scalajs_java.trees._
-import scalajs_java.utils.scope.Scope.ClassMapT
+import scalajs_java.utils.scope.{ClassHierarchy, SymbolKey}
 import scalajs_java.utils.{ErrorHandler, Fatal, Predicates}
 
-class Utils(val classes: ClassMapT,
+class Utils(val classes: ClassHierarchy,
             val errorHandler: ErrorHandler) {
 
-  def argListsMatch(callArgs: List[Expr], defArgs: List[VarDecl]): Boolean = {
-
-    if (callArgs.length != defArgs.length) return false
-    if (callArgs.isEmpty) return true
-
-    val callArgTypes = callArgs.map(_.tp)
-    val defArgTypes = defArgs.map(vd => Type.getTypeFromTree(vd.varType))
-
-    callArgTypes.zip(defArgTypes)
-        .map(p => Type.eq(p._1, p._2))
-        .reduce(_ && _)
-  }
-
-  /** Chooses a matching constructor for the NewClass call */
+  /** The constructor called by the NewClass: the one javac resolved the
+    * call to or, for anonymous classes, their only (synthetic) one.
+    * `None` means the default constructor (or, for a call with
+    * arguments, a constructor the compiler does not know of). */
   def getMatchingConstructor(newClass: NewClass,
       constructors: ConstructorsT): Option[MethodDecl] = {
-    implicit val pos = Utils.getPosition(newClass)
-
-    val clsName = getClassNameFromTree(newClass.ident)
-
-    val ctorCandidates = newClass.classBody match {
+    newClass.classBody match {
       case Some(classDecl) =>
-        classDecl.members.collect {
+        classDecl.members.collectFirst {
           case md: MethodDecl if Predicates.isConstructor(md) => md
         }
 
       case None =>
-        constructors.getOrElse(clsName,
-          throw new Exception("No constructor found"))
+        newClass.ctorSym.flatMap { sym =>
+          classes.constructor(sym) orElse constructors.get(new SymbolKey(sym))
+        }
     }
-
-    // find the first constructor, for which the argument list is ok:
-    val ctor = ctorCandidates.find(md =>
-      argListsMatch(newClass.args, md.params))
-
-    ctor
   }
 
   def getClassNameFromTree(tree: Tree)(
@@ -62,7 +44,7 @@ class Utils(val classes: ClassMapT,
       getClassNameFromTree(typeApply.tpe)
 
     case _ =>
-      errorHandler.fail(pos.line, Some("getClassNameFromExpr"),
+      errorHandler.fail(pos, Some("getClassNameFromExpr"),
         s"Failed to determine class name (from $tree)", Fatal)
       ""
   }
@@ -70,8 +52,17 @@ class Utils(val classes: ClassMapT,
 
 object Utils {
 
-  def getPosition(tree: Tree): Position =  tree.pos match {
-    case scalajs_java.trees.Position(line) => Position(Position.SourceFile(Config.testFilePath), line, 0)
+  /** The IR position of a tree of the unit from `sourceFile` (IR lines
+    * and columns start at 0) */
+  def getPosition(tree: Tree, sourceFile: Option[URI]): Position = {
+    val pos = tree.pos
+    sourceFile match {
+      case Some(file) =>
+        Position(file, (pos.line - 1) max 0, (pos.column - 1) max 0)
+
+      case None =>
+        Position.NoPosition
+    }
   }
 
   def typeTag(tpe: irtpe.Type): Char = tpe match {
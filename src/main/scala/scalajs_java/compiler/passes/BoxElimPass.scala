@@ -0,0 +1,19 @@
+package scalajs_java.compiler.passes
+
+import org.scalajs.core.ir.Trees.ClassDef
+
+import scalajs_java.compiler.BoxElim
+import scalajs_java.utils.{CompilerPhase, ErrorHandler}
+
+/** Runs after `AdaptPass`, see `BoxElim` */
+class BoxElimPass(verb: Boolean) extends Pass[ClassDef, ClassDef] {
+  override val verbose: Boolean = verb
+
+  override def runPass(tree: ClassDef): ClassDef =
+    (new BoxElim).elimClassDef(tree)
+
+  override val name: String = "Box elimination"
+
+  override val errorHandler: ErrorHandler =
+    new ErrorHandler(CompilerPhase(name))
+}
@@ -6,13 +6,14 @@ import org.scalajs.core.ir.{Trees => irt}
 import scalajs_java.compiler.Compiler
 import scalajs_java.compiler.passes.ConstructorPass.ConstructorsT
 import scalajs_java.trees.{CompilationUnit, Expr}
-import scalajs_java.utils.scope.Scope.ClassMapT
-import scalajs_java.utils.{CompilerPhase, ErrorHandler}
+import scalajs_java.utils.scope.ClassHierarchy
+import scalajs_java.utils.{CompilerPhase, ErrorHandler, Mangler}
 
 class CompilerPass(inits: Map[String, Expr],
-                   classes: ClassMapT,
+                   classes: ClassHierarchy,
                    constructors: ConstructorsT,
-                   override val verbose: Boolean=false)
+                   override val verbose: Boolean=false,
+                   mangler: Mangler = new Mangler)
     extends Pass[CompilationUnit, (List[irt.ClassDef], Option[String])] {
 
   override val name = "Compiler Pass"
@@ -20,7 +21,8 @@ class CompilerPass(inits: Map[String, Expr],
   override val errorHandler: ErrorHandler =
     new ErrorHandler(CompilerPhase("Compilation (AST -> IR)"))
 
-  private val compiler = new Compiler(inits, classes, constructors, errorHandler)
+  private val compiler = new Compiler(inits, classes, constructors, errorHandler,
+    mangler)
 
   override def runPass(tree: CompilationUnit): (List[ClassDef], Option[String]) =
     compiler.compile(tree)
@@ -0,0 +1,16 @@
+package scalajs_java.compiler.passes
+
+import scalajs_java.traversals.ConstFoldTraverse
+import scalajs_java.trees.CompilationUnit
+import scalajs_java.utils.{CompilerPhase, ErrorHandler}
+
+class ConstFoldPass(override val verbose: Boolean=false)
+    extends Pass[CompilationUnit, CompilationUnit] {
+
+  override val name: String = "Constant folding"
+
+  override val errorHandler: ErrorHandler = new ErrorHandler(CompilerPhase(name))
+
+  override def runPass(tree: CompilationUnit): CompilationUnit =
+    new ConstFoldTraverse(errorHandler).traverse(tree)
+}
@@ -2,6 +2,7 @@ package scalajs_java.compiler.passes
 
 import scalajs_java.traversals.ConstructorsTraverse
 import scalajs_java.trees.{CompilationUnit, MethodDecl}
+import scalajs_java.utils.scope.SymbolKey
 import scalajs_java.utils.{CompilerPhase, ErrorHandler}
 
 class ConstructorPass(verb: Boolean=false) extends Pass[CompilationUnit, CompilationUnit] {
@@ -25,8 +26,8 @@ class ConstructorPass(verb: Boolean=false) extends Pass[CompilationUnit, Compila
 }
 
 object ConstructorPass {
-  type ConstructorsT = Map[String, List[MethodDecl]]
-
-  def mkConstructors(constructors: List[ConstructorsT]): Map[String, List[MethodDecl]] =
-    constructors reduce {_ ++ _}
-}
\ No newline at end of file
+  /** The constructors declared in a unit, by (the identity of) their
+    * symbols. Only the ones of its local classes are not also found in
+    * the class hierarchy. */
+  type ConstructorsT = Map[SymbolKey, MethodDecl]
+}
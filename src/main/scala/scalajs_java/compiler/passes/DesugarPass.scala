@@ -1,20 +1,21 @@
 package scalajs_java.compiler.passes
 
 import scalajs_java.traversals.DesugarTraverse
-import scalajs_java.trees.CompilationUnit
-import scalajs_java.utils.scope.Scope.ClassMapT
+import scalajs_java.trees.{CompilationUnit, Interner}
+import scalajs_java.utils.scope.ClassHierarchy
 import scalajs_java.utils.{CompilerPhase, ErrorHandler}
 
 
 class DesugarPass(override val verbose: Boolean=false,
-                  classes: ClassMapT) extends Pass[CompilationUnit, CompilationUnit] {
+                  classes: ClassHierarchy,
+                  interner: Interner) extends Pass[CompilationUnit, CompilationUnit] {
 
   override val name = "Desugaring"
 
   override val errorHandler: ErrorHandler =
     new ErrorHandler(CompilerPhase(name))
 
-  private val desugarTraverse = new DesugarTraverse(errorHandler, classes)
+  private val desugarTraverse = new DesugarTraverse(errorHandler, classes, interner)
 
   override def runPass(tree: CompilationUnit): CompilationUnit =
     desugarTraverse.traverse(tree)
@@ -4,17 +4,22 @@ import com.sun.tools.javac.tree.JCTree
 import com.sun.tools.javac.tree.JCTree.JCCompilationUnit
 
 import scalajs_java.traversals.JTreeTraverse
-import scalajs_java.trees.CompilationUnit
+import scalajs_java.trees.{CompilationUnit, Interner}
 import scalajs_java.utils.{CompilerPhase, ErrorHandler}
 
-class JTraversePass(override val verbose: Boolean=false) extends Pass[JCTree.JCCompilationUnit, CompilationUnit] {
+class JTraversePass(override val verbose: Boolean=false,
+                    interner: Interner,
+                    signaturesOnly: Boolean=false,
+                    reachable: JCTree.JCMethodDecl => Boolean = _ => true)
+    extends Pass[JCTree.JCCompilationUnit, CompilationUnit] {
 
   override val name = "Java AST Traversal"
 
   override val errorHandler: ErrorHandler =
     new ErrorHandler(CompilerPhase("Java AST -> Scala AST"))
 
-  private val jtraverse = new JTreeTraverse(errorHandler)
+  private val jtraverse = new JTreeTraverse(errorHandler, interner,
+    signaturesOnly, reachable)
 
   override def runPass(tree: JCCompilationUnit): CompilationUnit =
     jtraverse.traverse(tree)
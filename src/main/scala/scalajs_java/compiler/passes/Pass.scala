@@ -1,6 +1,6 @@
 package scalajs_java.compiler.passes
 
-import scalajs_java.utils.ErrorHandler
+import scalajs_java.utils.{ErrorHandler, Metrics, Tracer}
 
 trait Pass[A, B] {
 
@@ -18,10 +18,10 @@ trait Pass[A, B] {
   def run(tree: A): B = {
     if (verbose) printHeader()
 
-    val result = this.runPass(tree)
+    val result = Metrics.measurePass(name, tree)(this.runPass(tree))
     this.errorHandler.reportErrors()
 
-    if (verbose) println(result.toString + "\n\n")
+    Tracer.snapshot(name, result)
     result
   }
 }
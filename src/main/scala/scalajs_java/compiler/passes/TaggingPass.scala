@@ -0,0 +1,31 @@
+package scalajs_java.compiler.passes
+
+import scalajs_java.traversals.TaggingTraverse
+import scalajs_java.trees.{CompilationUnit, Expr}
+import scalajs_java.utils.scope.ScopeState
+import scalajs_java.utils.{CompilerPhase, ErrorHandler, Mangler}
+
+/** `RefTagPass`, `EnclClassPass` and `StaticInitsPass` in a single walk.
+  *
+  * Runs after `DesugarPass` (it has to see the desugared loops and
+  * assignments) and before `ConstructorPass` (which reads the enclosing
+  * classes of the identifiers). */
+class TaggingPass(override val verbose: Boolean=false,
+                  scope: ScopeState,
+                  mangler: Mangler) extends Pass[CompilationUnit, CompilationUnit] {
+
+  override val name = "Tagging (references, enclosing classes, static initializers)"
+
+  override val errorHandler: ErrorHandler =
+    new ErrorHandler(CompilerPhase("Tagging"))
+
+  var inits: Map[String, Expr] = Map.empty
+
+  private val tagger = new TaggingTraverse(errorHandler, scope, mangler)
+
+  override def runPass(tree: CompilationUnit): CompilationUnit = {
+    val res = tagger.traverse(tree)
+    inits = tagger.inits
+    res
+  }
+}
@@ -1,13 +1,91 @@
 package scalajs_java.runtime
 
+import java.io.File
+import java.nio.file.Files
+import java.security.MessageDigest
+
+import scalajs_java.DiagnosticSink
+
 /**
   * Temporary: here we'll keep all the hard-coded config
   * until we have a fully working compiler.
   */
 object Config {
+
+  private def listProp(name: String): List[String] =
+    sys.props.get(name).toList.flatMap(_.split(",")).map(_.trim).filter(_.nonEmpty)
+
   val testFilePath: String = "Test.java"
   val testProjectPath: String = "examples/assignments"
-  val verbose: Boolean = true
+  val verbose: Boolean = false
+
+  /** Directory to dump the trees to (`-Dscalajs_java.trace=<dir>`),
+    * see `Tracer` */
+  val traceDir: Option[String] = sys.props.get("scalajs_java.trace")
+
+  val tracePasses: List[String] = listProp("scalajs_java.trace.passes")
+
+  val traceClasses: List[String] = listProp("scalajs_java.trace.classes")
+
+  /** Number of threads used by javac (`-Dscalajs_java.frontEndThreads=N`).
+    * With more than one, independent parts of a project are parsed
+    * and typechecked in parallel. */
+  val frontEndThreads: Int =
+    sys.props.get("scalajs_java.frontEndThreads").map(_.toInt).getOrElse(1)
+
+  /** Number of threads compiling the units after javac
+    * (`-Dscalajs_java.middleEndThreads=N`) */
+  val middleEndThreads: Int =
+    sys.props.get("scalajs_java.middleEndThreads").map(_.toInt).getOrElse(1)
+
+  /** Compile the units one by one, releasing their trees as soon as
+    * possible (`-Dscalajs_java.streaming=true`) */
+  val streaming: Boolean =
+    sys.props.get("scalajs_java.streaming").exists(_ != "false")
+
+  /** Leave out the bodies of the methods that are never called from the
+    * main method (`-Dscalajs_java.pruneUnreachable=false` to disable).
+    * Not used by incremental builds, which only see a part of the project. */
+  val pruneUnreachable: Boolean =
+    sys.props.get("scalajs_java.pruneUnreachable").forall(_ != "false")
+
+  /** Directory of the on-disk IR cache (`-Dscalajs_java.cacheDir=<dir>`) */
+  val cacheDir: Option[String] = sys.props.get("scalajs_java.cacheDir")
+
+  /** Version of the compiler output: a cache written by another build
+    * of the compiler (or for another version of the IR) is discarded */
+  lazy val cacheVersion: String =
+    "scalajs-java-" + compilerHash + "/ir-" +
+      org.scalajs.core.ir.ScalaJSVersions.binaryEmitted
+
+  /** Hash of the classes of the compiler: of its jar, or of all its class
+    * files when it runs from a directory (e.g. from sbt) */
+  private def compilerHash: String = {
+    val digest = MessageDigest.getInstance("SHA-1")
+
+    def add(file: File): Unit = {
+      if (file.isDirectory) {
+        Option(file.listFiles).toList.flatten.sortBy(_.getName).foreach(add)
+      } else if (file.isFile) {
+        digest.update(file.getName.getBytes("UTF-8"))
+        digest.update(Files.readAllBytes(file.toPath))
+      }
+    }
+
+    val codeSource = Option(getClass.getProtectionDomain.getCodeSource)
+    codeSource.map(src => new File(src.getLocation.toURI)).foreach(add)
+    digest.digest().map("%02x".format(_)).mkString
+  }
+
+  /** Where to write the compilation metrics (`-Dscalajs_java.metrics=<file>`),
+    * no metrics are collected if not set */
+  val metricsReport: Option[String] = sys.props.get("scalajs_java.metrics")
+
+  /** Errors reported before the rest is only counted
+    * (`-Dscalajs_java.maxErrors=N`) */
+  val maxErrors: Int =
+    sys.props.get("scalajs_java.maxErrors").map(_.toInt)
+      .getOrElse(DiagnosticSink.DEFAULT_MAX_ERRORS)
 
   val examples = List(
     "assignments",
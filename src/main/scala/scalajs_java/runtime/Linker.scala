@@ -5,6 +5,8 @@ import org.scalajs.core.tools.io._
 import org.scalajs.core.tools.linker.{Linker => ScalaJSLinker, _}
 import org.scalajs.core.tools.logging._
 
+import scalajs_java.utils.Metrics
+
 /**
   * The code is from:
   * https://github.com/sjrd/scalajsir-calc/blob/master/src/main/scala/calc/Linker.scala
@@ -40,18 +42,31 @@ object Linker {
     }
   }
 
-  def link(classDefs: List[ir.Trees.ClassDef], logger: Logger): VirtualJSFile = {
+  /** Forces loading of the standard library IR (e.g. when warming up) */
+  def loadLibrary(): Int = libraryIRFiles.size
+
+  /** The Scala.js linker caches its state between runs, so a linker
+    * that is kept alive links an unchanged library much faster. */
+  def newLinker(): ScalaJSLinker =
+    ScalaJSLinker(frontendConfig = frontend.LinkerFrontend.Config().withCheckIR(true))
+
+  def link(classDefs: List[ir.Trees.ClassDef], logger: Logger,
+      linker: ScalaJSLinker = newLinker()): VirtualJSFile = {
     // Put the `classDef` in a virtual file
     val classIRFiles = classDefs.map(mkIRFile)
 
-    val allIRFiles = libraryIRFiles ++ classIRFiles
+    linkIRFiles(classIRFiles, logger, linker)
+  }
 
-    val linker = ScalaJSLinker(
-      frontendConfig = frontend.LinkerFrontend.Config().withCheckIR(true))
+  def linkIRFiles(classIRFiles: List[VirtualScalaJSIRFile], logger: Logger,
+      linker: ScalaJSLinker = newLinker()): VirtualJSFile = {
+    val allIRFiles = libraryIRFiles ++ classIRFiles
 
     val output = WritableMemVirtualJSFile("output.js")
-    linker.link(allIRFiles, output, logger)
+    Metrics.measure("Linker", "<project>") {
+      linker.link(allIRFiles, output, logger)
+    }
     output
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,131 @@
+package scalajs_java.traversals
+
+import com.sun.tools.javac.code.{TypeTag, Type => JType}
+import com.sun.tools.javac.tree.JCTree.Tag
+
+import scalajs_java.trees._
+import scalajs_java.utils.ErrorHandler
+
+/** Replaces the constant expressions with their values and prunes the
+  * branches that can never be taken.
+  *
+  * javac has already evaluated the constant expressions (JLS 15.28) while
+  * attributing them, with the Java semantics (int overflow, char and
+  * string conversions...), and gave them a type holding the value. That
+  * includes the references to constant variables: `final` locals and
+  * `static final` fields of primitive or `String` type with a constant
+  * initializer. Those values are turned into literals here, so they are
+  * never computed at runtime.
+  *
+  * Then the `If`s and conditional expressions with a constant condition
+  * are replaced with the branch that is taken, and so are the `&&` and
+  * `||` with a constant left operand (`DEBUG && expensive()`). */
+class ConstFoldTraverse(val errorHanlder: ErrorHandler) extends Traverse {
+
+  private def constValue(tp: Type): Option[(JType, Any)] = tp match {
+    case JExprType(jtype) if jtype != null && jtype.constValue() != null =>
+      Some((jtype.baseType(), jtype.constValue()))
+
+    case _ =>
+      None
+  }
+
+  /** The literal with the given value (as represented by javac) */
+  private def mkLiteral(jtype: JType, value: Any)(
+      implicit pos: Position): Option[Literal] = {
+    val tp = JExprType(jtype)
+    (jtype.getTag, value) match {
+      case (TypeTag.BOOLEAN, v: java.lang.Boolean) =>
+        Some(BooleanLiteral(v.booleanValue, tp))
+
+      case (TypeTag.BOOLEAN, v: Number) =>
+        Some(BooleanLiteral(v.intValue != 0, tp))
+
+      case (TypeTag.CHAR, v: Character) =>
+        Some(CharLiteral(v.charValue, tp))
+
+      case (TypeTag.CHAR, v: Number) =>
+        Some(CharLiteral(v.intValue.toChar, tp))
+
+      case (TypeTag.BYTE | TypeTag.SHORT | TypeTag.INT, v: Number) =>
+        Some(IntLiteral(v.intValue, tp))
+
+      case (TypeTag.LONG, v: Number) =>
+        Some(LongLiteral(v.longValue, tp))
+
+      case (TypeTag.FLOAT, v: Number) =>
+        Some(FloatLiteral(v.floatValue, tp))
+
+      case (TypeTag.DOUBLE, v: Number) =>
+        Some(DoubleLiteral(v.doubleValue, tp))
+
+      case (TypeTag.CLASS, v: String) =>
+        Some(ClassLiteral(v, tp))
+
+      case _ =>
+        None
+    }
+  }
+
+  /** Whether evaluating the qualifier of a field access can have no
+    * side effects (dropping it is safe) */
+  private def isPure(expr: Expr): Boolean = expr match {
+    case _: Ident                 => true
+    case fieldAccess: FieldAccess => isPure(fieldAccess.selected)
+    case _                        => false
+  }
+
+  private def isFoldable(expr: Expr): Boolean = expr match {
+    case fieldAccess: FieldAccess => isPure(fieldAccess.selected)
+    case _: Literal               => false
+    case _                        => true
+  }
+
+  private def fold(expr: Expr): Option[Literal] = {
+    if (!isFoldable(expr)) None
+    else constValue(expr.tp).flatMap(c => mkLiteral(c._1, c._2)(expr.pos))
+  }
+
+  private def branch(cond: Expr, trueExpr: Expr, falseExpr: Expr,
+      tp: Type): Option[Expr] = cond match {
+    case BooleanLiteral(value, _) =>
+      val taken = if (value) trueExpr else falseExpr
+      // the other branch may have given the expression a wider type
+      if (Type.eq(taken.tp, tp)) Some(taken) else None
+
+    case _ =>
+      None
+  }
+
+  private def prune(expr: Expr): Expr = expr match {
+    case Conditional(cond, trueExpr, falseExpr, tp) =>
+      branch(cond, trueExpr, falseExpr, tp).getOrElse(expr)
+
+    case Binary(Tag.AND, left@BooleanLiteral(value, _), right, _) =>
+      if (value) right else left
+
+    case Binary(Tag.OR, left@BooleanLiteral(value, _), right, _) =>
+      if (value) left else right
+
+    case _ =>
+      expr
+  }
+
+  override def traverse(expression: Expr): Expr = {
+    fold(expression) match {
+      case Some(lit) => lit
+      case None      => prune(super.traverse(expression))
+    }
+  }
+
+  override def traverse(stmt: Statement): Statement = {
+    super.traverse(stmt) match {
+      case If(BooleanLiteral(value, _), thenStmt, elseStmt) =>
+        implicit val pos = stmt.pos
+        if (value) thenStmt else elseStmt.getOrElse(Skip())
+
+      case other =>
+        other
+    }
+  }
+}
@@ -1,11 +1,12 @@
 package scalajs_java.traversals
 
 import scalajs_java.trees._
+import scalajs_java.utils.scope.SymbolKey
 import scalajs_java.utils.{ErrorHandler, Predicates}
 
 class ConstructorsTraverse extends Traverse {
 
-  var constructors: Map[String, List[MethodDecl]] = Map.empty
+  var constructors: Map[SymbolKey, MethodDecl] = Map.empty
 
   var classes: List[ClassDecl] = Nil
 
@@ -47,11 +48,10 @@ class ConstructorsTraverse extends Traverse {
 
   override def traverse(classDecl: ClassDecl): ClassDecl = {
     implicit val pos = classDecl.pos
-    val conss = classDecl.members.collect {
+    constructors ++= classDecl.members.collect {
       case md: MethodDecl if md.symbol.isConstructor =>
-        md
+        new SymbolKey(md.symbol) -> md
     }
-    constructors += (classDecl.symbol.toString -> conss)
 
     super.traverse(classDecl)
   }
@@ -78,7 +78,7 @@ class ConstructorsTraverse extends Traverse {
 
             NewClass(traverse(newIdent), newClass.typeArgs.map(traverse),
               newClass.args.map(traverse), Some(newAnonClass),
-              newClass.enclExpr.map(traverse), newClass.tp)
+              newClass.enclExpr.map(traverse), newClass.tp, newClass.ctorSym)
 
           case _ =>
             throw new Exception("[ConstructorsTraverse -- NewClass]" +
@@ -0,0 +1,50 @@
+package scalajs_java.traversals
+
+import scalajs_java.trees._
+
+/** Collects the full names of the classes declared in a compilation unit
+  * and of everything it refers to (symbols, their owners and the types
+  * of expressions). Used to find the units affected by a change. */
+class DependencyTraverse extends Traverse {
+
+  var declared: Set[String] = Set.empty
+
+  var referenced: Set[String] = Set.empty
+
+  private def addSymbol(symbol: Symbol): Unit = {
+    if (symbol != null) {
+      referenced += symbol.name
+      if (symbol.owner != null) referenced += symbol.owner.name
+    }
+  }
+
+  private def addType(tpe: Type): Unit = tpe match {
+    case JExprType(jtype) if jtype != null && jtype.tsym != null =>
+      referenced += jtype.tsym.toString
+
+    case _ =>
+      ()
+  }
+
+  // the full names, as the symbols and types referring to the class
+  override def traverse(classDecl: ClassDecl): ClassDecl = {
+    declared += (if (classDecl.symbol != null) classDecl.symbol.name
+                 else classDecl.name.str)
+    super.traverse(classDecl)
+  }
+
+  override def traverse(ident: Ident): Ident = {
+    addSymbol(ident.symbol)
+    super.traverse(ident)
+  }
+
+  override def traverse(fieldAccess: FieldAccess): FieldAccess = {
+    addSymbol(fieldAccess.symbol)
+    super.traverse(fieldAccess)
+  }
+
+  override def traverse(expression: Expr): Expr = {
+    addType(expression.tp)
+    super.traverse(expression)
+  }
+}
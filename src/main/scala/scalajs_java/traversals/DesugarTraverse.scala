@@ -1,15 +1,16 @@
 package scalajs_java.traversals
 
-import com.sun.tools.javac.code.Type.JCPrimitiveType
-import com.sun.tools.javac.code.TypeTag
+import com.sun.tools.javac.code.Type.{ArrayType, JCPrimitiveType}
+import com.sun.tools.javac.code.{TypeTag, Type => JType}
 import com.sun.tools.javac.tree.JCTree.Tag
 
 import scalajs_java.trees._
 import scalajs_java.utils.ErrorHandler
-import scalajs_java.utils.scope.Scope.ClassMapT
+import scalajs_java.utils.scope.ClassHierarchy
 
 /** Transorms Java-specific operations to their Scala equivalents */
-class DesugarTraverse(val errorHanlder: ErrorHandler, val classes: ClassMapT) extends Traverse {
+class DesugarTraverse(val errorHanlder: ErrorHandler, val classes: ClassHierarchy,
+    val interner: Interner) extends Traverse {
 
   def convertASGtoOp(op: Tag): Tag = op match {
     case Tag.BITOR_ASG  => Tag.BITOR
@@ -59,12 +60,154 @@ class DesugarTraverse(val errorHanlder: ErrorHandler, val classes: ClassMapT) ex
     Block(forLoop.init :+ loop, isStatic = false)
   }
 
+  /** The type tree of a javac type (for the locals introduced here) */
+  private def typeTree(jtype: JType)(implicit pos: Position): Expr = {
+    val tp = JExprType(jtype)
+    if (jtype.isPrimitive)
+      PrimitiveTypeTree(jtype.getKind, jtype.getTag, tp)
+    else if (jtype.getTag == TypeTag.ARRAY)
+      ArrayTypeTree(typeTree(jtype.asInstanceOf[ArrayType].elemtype), tp)
+    else
+      Ident(Symbol.fromJava(jtype.tsym, interner),
+        Name.fromJName(jtype.tsym.name, interner), tp)
+  }
+
+  /** A local of the loop being desugared (`owner` is its method) */
+  private def mkLocal(name: String, owner: Symbol, varType: Tree, tp: Type,
+      init: Expr)(implicit pos: Position): (VarDecl, Ident) = {
+    val sym = Symbol(name, owner, isLocal = true)
+    val decl = VarDecl(Modifiers(Set.empty, Nil), Name(name), None, sym,
+      varType, Some(init), LocalVar)
+
+    (decl, Ident(sym, Name(name), tp))
+  }
+
+  /** The first statement of the loop body declares the loop variable */
+  private def loopBody(variable: VarDecl, elem: Expr, next: List[Statement],
+      body: Statement)(implicit pos: Position): Block = {
+    val elemDecl = variable.copy(init = Some(elem))(variable.pos)
+    Block(elemDecl :: next ++ List(body), isStatic = false)
+  }
+
+  private def lookupMethod(tp: Type, signature: String): Option[MethodDecl] =
+    tp match {
+      case JExprType(jtype) if jtype.tsym != null =>
+        classes.lookupMethod(Symbol.javaName(jtype.tsym), signature)
+
+      case _ =>
+        None
+    }
+
+  /** The type of the result of a method, if it is declared in the project */
+  private def returnType(method: Option[MethodDecl]): Option[Type] =
+    method.flatMap(_.retType) collect {
+      case typed: TypedTree => typed.tp
+    }
+
+  /** A call without arguments of a method of the project */
+  private def mkCall(receiver: Expr, method: MethodDecl, tp: Type)(
+      implicit pos: Position): MethodInv = {
+    val select = FieldAccess(method.name, method.symbol, receiver, tp)
+
+    MethodInv(select, Nil, Nil, tp, methodSym = Some(method.symbol))
+  }
+
+  /** `for (T x : array) body` becomes
+    * {{{
+    *   A[] array = ...; int length = array.length; int index = 0;
+    *   while (index < length) { T x = array[index]; index = index + 1; body }
+    * }}}
+    * The index is incremented before the body, so that `continue` does
+    * not skip it. There is no iterator and no boxing. */
+  private def desugarArrayLoop(variable: VarDecl, expr: Expr, body: Statement,
+      owner: Symbol, jtype: JType)(implicit pos: Position): Block = {
+    val intTp = JExprType.intType()
+    val intTree = typeTree(intTp.jtype)
+    val elemTp = JExprType(jtype.asInstanceOf[ArrayType].elemtype)
+
+    val (arrayDecl, array) = mkLocal("array", owner, typeTree(jtype),
+      expr.tp, expr)
+    val (lengthDecl, length) = mkLocal("length", owner, intTree, intTp,
+      ArrayLength(array, intTp))
+    val (indexDecl, index) = mkLocal("index", owner, intTree, intTp,
+      IntLiteral(0, intTp))
+
+    val cond = Binary(Tag.LT, index, length, JExprType.booleanType())
+    val increment = ExprStatement(Assign(index,
+      Binary(Tag.PLUS, index, IntLiteral(1, intTp), intTp), intTp))
+    val elem = ArrayAccess(array, index, elemTp)
+    val loop = WhileLoop(cond, loopBody(variable, elem, List(increment), body))
+
+    Block(List(arrayDecl, lengthDecl, indexDecl, loop), isStatic = false)
+  }
+
+  /** `for (T x : iterable) body` becomes
+    * {{{
+    *   I iterator = iterable.iterator();
+    *   while (iterator.hasNext()) { T x = iterator.next(); body }
+    * }}}
+    * with a single iterator. The calls are bound to the methods of the
+    * project: `iterator()` of the class of `iterable` and `hasNext()`,
+    * `next()` of the class `I` it returns. The methods of the library
+    * cannot be called, so the loops over its `Iterable`s (or over ones
+    * returning a `java.util.Iterator`) are not supported. */
+  private def desugarIterableLoop(enhForLoop: EnhancedForLoop,
+      variable: VarDecl, expr: Expr, body: Statement, owner: Symbol)(
+      implicit pos: Position): Statement = {
+    val iteratorMethod = lookupMethod(expr.tp, "iterator()")
+    val iteratorTp = returnType(iteratorMethod)
+    val hasNextMethod = iteratorTp.flatMap(lookupMethod(_, "hasNext()"))
+    val nextMethod = iteratorTp.flatMap(lookupMethod(_, "next()"))
+
+    (iteratorMethod, iteratorTp, hasNextMethod, nextMethod) match {
+      case (Some(iteratorM), Some(iteratorT), Some(hasNextM), Some(nextM)) =>
+        val nextTp = returnType(nextMethod).getOrElse(AnyType)
+
+        val (iteratorDecl, iterator) = mkLocal("iterator", owner,
+          iteratorM.retType.get, iteratorT, mkCall(expr, iteratorM, iteratorT))
+
+        val cond = mkCall(iterator, hasNextM, JExprType.booleanType())
+        val elem = mkCall(iterator, nextM, nextTp)
+        val loop = WhileLoop(cond, loopBody(variable, elem, Nil, body))
+
+        Block(List(iteratorDecl, loop), isStatic = false)
+
+      case _ =>
+        val typeName = expr.tp match {
+          case JExprType(jtype) => jtype.toString
+          case tp               => tp.toString
+        }
+        errorHanlder.fail(pos.line, Some("desugarIterableLoop"),
+          s"Not supported yet: enhanced for loop over $typeName (only " +
+          "arrays and the Iterables of the project whose iterator() " +
+          "returns a class of the project)", Normal)
+        EnhancedForLoop(variable, expr, body)(enhForLoop.pos)
+    }
+  }
+
+  override def traverse(enhForLoop: EnhancedForLoop): Statement = {
+    implicit val pos: Position = enhForLoop.pos
+
+    val variable = traverse(enhForLoop.variable)
+    val expr = traverse(enhForLoop.expr)
+    val body = traverse(enhForLoop.body)
+    val owner = if (variable.symbol == null) null else variable.symbol.owner
+
+    expr.tp match {
+      case JExprType(jtype) if jtype.getTag == TypeTag.ARRAY =>
+        desugarArrayLoop(variable, expr, body, owner, jtype)
+
+      case _ =>
+        desugarIterableLoop(enhForLoop, variable, expr, body, owner)
+    }
+  }
+
   override def traverse(lambda: Lambda): NewClass = {
     implicit val pos: Position = lambda.pos
 
     lambda.tp match {
       case tp@JExprType(jtype) =>
-        val sym = Symbol.fromJava(jtype.tsym).copy(isInterface = false)
+        val sym = Symbol.fromJava(jtype.tsym, interner).copy(isInterface = false)
         val clsName = jtype.tsym.toString
         val newClassName = Name(sym.name.split('.').toList.last)
         val newClassIdent = Ident(sym, newClassName, tp)
@@ -74,8 +217,8 @@ class DesugarTraverse(val errorHanlder: ErrorHandler, val classes: ClassMapT) ex
           if (jtype.tsym.isInterface) (None, List(ancestorIdent))
           else (Some(ancestorIdent), Nil)
 
-        val baseClass = classes
-            .getOrElse(clsName, throw new Exception("Couldn't find base class"))
+        val baseClass = classes.get(clsName)
+            .getOrElse(throw new Exception("Couldn't find base class"))
 
         // this is actually quite safe, because if the
         // class wasn't a functional interface, javac's TC
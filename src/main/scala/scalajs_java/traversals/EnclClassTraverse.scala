@@ -3,16 +3,21 @@ package scalajs_java.traversals
 import scalajs_java.trees.{Ident, ClassDecl}
 import scalajs_java.utils.{ClassScope, ErrorHandler}
 
-/** Traverses the tree constructing the scope and tagging
-  * `Ident` nodes with the tree nodes they reference. */
-class EnclClassTraverse(errHandler: ErrorHandler) extends Traverse with ClassScope { self =>
+/** Tags `Ident` nodes with the name of their enclosing class.
+  *
+  * Stackable: can be mixed with other taggings into a single
+  * traversal (see `TaggingTraverse`). */
+trait EnclClassTagging extends Traverse with ClassScope {
 
   override def traverse(classDecl: ClassDecl): ClassDecl = {
     withEnclClass[ClassDecl, ClassDecl](classDecl, classDecl)(super.traverse)
   }
 
   override def traverse(ident: Ident): Ident =
-    ident.copy(enclClass = getEnclClass)(ident.pos)
+    super.traverse(ident.copy(enclClass = getEnclClass)(ident.pos))
+}
+
+class EnclClassTraverse(errHandler: ErrorHandler) extends EnclClassTagging { self =>
 
   val errorHandler: ErrorHandler = errHandler
 }
@@ -1,26 +1,57 @@
 package scalajs_java.traversals
 
 import com.sun.source.tree.LambdaExpressionTree.BodyKind
-import com.sun.source.tree.MemberReferenceTree
+import com.sun.source.tree.{LineMap, MemberReferenceTree}
 import com.sun.tools.javac.code.TypeTag
-import com.sun.tools.javac.tree.JCTree
+import com.sun.tools.javac.tree.{JCTree, TreeInfo}
+import com.sun.tools.javac.util.{Position => JPosition}
 
 import scala.collection.JavaConversions._
 import scalajs_java.trees._
 import scalajs_java.utils.{ErrorHandler, Fatal, Normal}
 
-/** Converts the JCTree into Scala representation (from `Tree.scala`). */
-class JTreeTraverse(val errorHanlder: ErrorHandler) {
+/** Converts the JCTree into Scala representation (from `Tree.scala`).
+  *
+  * With `signaturesOnly` set, only the class structure and member
+  * signatures are converted: method bodies, field initializers and
+  * initializer blocks are left out. This is enough for collecting the
+  * exported symbols and works on units that were entered, but not
+  * typechecked, by javac.
+  *
+  * The bodies of the methods for which `reachable` is false are not
+  * converted: they are replaced with `throw null` (see
+  * `ReachabilityScan`).
+  *
+  * The names and symbols are shared through the `interner` of the
+  * compilation. */
+class JTreeTraverse(val errorHanlder: ErrorHandler,
+                    val interner: Interner,
+                    val signaturesOnly: Boolean = false,
+                    val reachable: JCTree.JCMethodDecl => Boolean = _ => true) {
+
+  /** Line map of the unit being traversed */
+  private var lineMap: LineMap = _
+
+  /** Position of the given tree: its line and column, or no position if
+    * javac did not record one. */
+  private def positionOf(tree: JCTree): Position = {
+    val start = tree.getStartPosition
+    if (start == JPosition.NOPOS || lineMap == null) Position.noPosition
+    else Position(lineMap.getLineNumber(start).toInt,
+      lineMap.getColumnNumber(start).toInt)
+  }
 
   /** Traverse a java compilation unit, creating a `Trees.CompilationUnit` */
   def traverse(compilationUnit: JCTree.JCCompilationUnit): CompilationUnit = {
-    implicit val pos: Position = Position(compilationUnit.getStartPosition)
+    lineMap = compilationUnit.lineMap
+
+    implicit val pos: Position = positionOf(compilationUnit)
     traverseCompilationUnit(compilationUnit)
   }
 
   /** Generic traverse, for top-level nodes. */
   def traverseTree(tree: JCTree): Tree = {
-      implicit val pos: Position = Position(tree.getStartPosition)
+    implicit val pos: Position = positionOf(tree)
     tree match {
       case that: JCTree.JCMethodDecl =>
         traverseMethodDecl(that)
@@ -57,8 +88,8 @@ class JTreeTraverse(val errorHanlder: ErrorHandler) {
 
   // Expressions
 
-  private def traverseExpr(expr: JCTree.JCExpression)(
-      implicit pos: Position): Expr = {
+  private def traverseExpr(expr: JCTree.JCExpression): Expr = {
+    implicit val pos: Position = positionOf(expr)
 
     expr match {
       case that: JCTree.LetExpr =>
@@ -152,67 +183,70 @@ class JTreeTraverse(val errorHanlder: ErrorHandler) {
 
   // Statements
 
-  private def traverseStmt(stmt: JCTree.JCStatement)(
-      implicit pos: Position): Statement = stmt match {
-    case that: JCTree.JCAssert =>
-      traverseAssert(that)
+  private def traverseStmt(stmt: JCTree.JCStatement): Statement = {
+    implicit val pos: Position = positionOf(stmt)
+
+    stmt match {
+      case that: JCTree.JCAssert =>
+        traverseAssert(that)
 
-    case that: JCTree.JCThrow =>
-      traverseThrow(that)
+      case that: JCTree.JCThrow =>
+        traverseThrow(that)
 
-    case that: JCTree.JCReturn =>
-      traverseReturn(that)
+      case that: JCTree.JCReturn =>
+        traverseReturn(that)
 
-    case that: JCTree.JCContinue =>
-      traverseContinue(that)
+      case that: JCTree.JCContinue =>
+        traverseContinue(that)
 
-    case that: JCTree.JCBreak =>
-      traverseBreak(that)
+      case that: JCTree.JCBreak =>
+        traverseBreak(that)
 
-    case that: JCTree.JCExpressionStatement =>
-      traverseExprStmt(that)
+      case that: JCTree.JCExpressionStatement =>
+        traverseExprStmt(that)
 
-    case that: JCTree.JCIf =>
-      traverseIf(that)
+      case that: JCTree.JCIf =>
+        traverseIf(that)
 
-    case that: JCTree.JCTry =>
-      traverseTry(that)
+      case that: JCTree.JCTry =>
+        traverseTry(that)
 
-    case that: JCTree.JCSynchronized =>
-      traverseSynchronized(that)
+      case that: JCTree.JCSynchronized =>
+        traverseSynchronized(that)
 
-    case that: JCTree.JCCase =>
-      traverseCase(that)
+      case that: JCTree.JCCase =>
+        traverseCase(that)
 
-    case that: JCTree.JCSwitch =>
-      traverseSwitch(that)
+      case that: JCTree.JCSwitch =>
+        traverseSwitch(that)
 
-    case that: JCTree.JCLabeledStatement =>
-      traverseLabeledStmt(that)
+      case that: JCTree.JCLabeledStatement =>
+        traverseLabeledStmt(that)
 
-    case that: JCTree.JCEnhancedForLoop =>
-      traverseEnhancedForLoop(that)
+      case that: JCTree.JCEnhancedForLoop =>
+        traverseEnhancedForLoop(that)
 
-    case that: JCTree.JCForLoop =>
-      traverseForLoop(that)
+      case that: JCTree.JCForLoop =>
+        traverseForLoop(that)
 
-    case that: JCTree.JCWhileLoop =>
-      traverseWhileLoop(that)
+      case that: JCTree.JCWhileLoop =>
+        traverseWhileLoop(that)
 
-    case that: JCTree.JCDoWhileLoop =>
-      traverseDoWhileLoop(that)
+      case that: JCTree.JCDoWhileLoop =>
+        traverseDoWhileLoop(that)
 
-    case that: JCTree.JCBlock =>
-      traverseBlock(that)
+      case that: JCTree.JCBlock =>
+        traverseBlock(that)
 
-    case that: JCTree.JCSkip =>
-      traverseSkip(that)
+      case that: JCTree.JCSkip =>
+        traverseSkip(that)
 
-    case that: JCTree.JCVariableDecl =>
-      traverseVarDecl(that)
+      case that: JCTree.JCVariableDecl =>
+        traverseVarDecl(that)
 
-    case that: JCTree.JCClassDecl =>
-      traverseClassDecl(that)
+      case that: JCTree.JCClassDecl =>
+        traverseClassDecl(that)
+    }
   }
 
 
@@ -251,8 +285,9 @@ class JTreeTraverse(val errorHanlder: ErrorHandler) {
     val enclExpr = Option(newClass.getEnclosingExpression).map(traverseExpr)
     val ident = traverseExpr(newClass.getIdentifier)
     val tp = JExprType(newClass.`type`)
+    val ctorSym = Option(Symbol.fromJava(newClass.constructor, interner))
 
-    NewClass(ident, typeArgs, args, classBody, enclExpr, tp)
+    NewClass(ident, typeArgs, args, classBody, enclExpr, tp, ctorSym)
   }
 
   def traverseMethodInv(methodInv: JCTree.JCMethodInvocation)(
@@ -261,8 +296,10 @@ class JTreeTraverse(val errorHanlder: ErrorHandler) {
     val methodSel = traverseExpr(methodInv.getMethodSelect)
     val typeArgs = methodInv.getTypeArguments.map(traverseExpr).toList
     val tp = JExprType(methodInv.`type`)
+    val methodSym =
+      Option(Symbol.fromJava(TreeInfo.symbol(methodInv.meth), interner))
 
-    MethodInv(methodSel, typeArgs, args, tp)
+    MethodInv(methodSel, typeArgs, args, tp, methodSym = methodSym)
   }
 
   // Specific per-node-type traversals.
@@ -272,13 +309,15 @@ class JTreeTraverse(val errorHanlder: ErrorHandler) {
     val imports = compUnit.getImports.map(traverseImport).toList
     val typeDecls = compUnit.getTypeDecls.map(traverseTree).toList
 
-    CompilationUnit(imports, typeDecls)
+    val sourceFile = Option(compUnit.sourcefile).map(_.toUri)
+
+    CompilationUnit(imports, typeDecls, sourceFile)
   }
 
   private def traverseMethodDecl(methodDecl: JCTree.JCMethodDecl)(
       implicit pos: Position): MethodDecl = {
-    val name = Name.fromJName(methodDecl.getName)
-    val symbol = Symbol.fromJava(methodDecl.sym)
+    val name = Name.fromJName(methodDecl.getName, interner)
+    val symbol = Symbol.fromJava(methodDecl.sym, interner)
     val modifiers = traverseModifiers(methodDecl.getModifiers)
     val typeParams = methodDecl.getTypeParameters.map(traverseTypeParam).toList
     val recvParam = Option(methodDecl.getReceiverParameter)
@@ -286,13 +325,20 @@ class JTreeTraverse(val errorHanlder: ErrorHandler) {
     val params = methodDecl.getParameters.map(traverseVarDecl(_, Param)).toList
     val thrown = methodDecl.getThrows.map(traverseExpr).toList
     val retType = Option(methodDecl.getReturnType).map(traverseTree)
-    val body = if (methodDecl.body == null) EmptyTree() else traverseBlock(methodDecl.getBody)
+    val body =
+      if (methodDecl.body == null || signaturesOnly) EmptyTree()
+      else if (!reachable(methodDecl)) unreachableBody
+      else traverseBlock(methodDecl.getBody)
     val defVal = Option(methodDecl.defaultValue).map(traverseExpr)
 
     MethodDecl(name, symbol, modifiers, typeParams, recvParam,
       params, thrown, retType, body, defVal)
   }
 
+  /** Body of a method that is never called */
+  private def unreachableBody(implicit pos: Position): Block =
+    Block(List(Throw(NullLiteral())), isStatic = false)
+
   private def traverseImport(that: JCTree.JCImport)(
       implicit pos: Position): Import = {
     val qId = traverseTree(that.getQualifiedIdentifier)
@@ -301,7 +347,7 @@ class JTreeTraverse(val errorHanlder: ErrorHandler) {
 
   private def traverseTypeParam(tparam: JCTree.JCTypeParameter)(
       implicit pos: Position): TypeParam = {
-    val name = Name.fromJName(tparam.getName)
+    val name = Name.fromJName(tparam.getName, interner)
     val bounds = tparam.getBounds.map(traverseExpr).toList
     val annotations = tparam.getAnnotations.map(traverseAnnotation).toList
     TypeParam(name, bounds, annotations)
@@ -326,10 +372,12 @@ class JTreeTraverse(val errorHanlder: ErrorHandler) {
 
   private def traverseVarDecl(varDecl: JCTree.JCVariableDecl,
       kind: VarKind = ClassMember)(implicit pos: Position): VarDecl = {
-    val initializer = Option(varDecl.getInitializer).map(traverseExpr)
+    val initializer =
+      if (signaturesOnly && kind == ClassMember) None
+      else Option(varDecl.getInitializer).map(traverseExpr)
     val modifiers = traverseModifiers(varDecl.getModifiers)
-    val symbol = Symbol.fromJava(varDecl.sym)
-    val name = Name.fromJName(varDecl.name)
+    val symbol = Symbol.fromJava(varDecl.sym, interner)
+    val name = Name.fromJName(varDecl.name, interner)
     val nameExpr = Option(varDecl.getNameExpression).map(traverseExpr)
     val tpe = traverseTree(varDecl.getType)
     val newKind = if (symbol.isLocal && kind == ClassMember) LocalVar else kind
@@ -339,12 +387,15 @@ class JTreeTraverse(val errorHanlder: ErrorHandler) {
 
   private def traverseClassDecl(classDecl: JCTree.JCClassDecl)(
       implicit pos: Position): ClassDecl = {
-    val name = Name.fromJName(classDecl.sym.fullname)
-    val symbol = Symbol.fromJava(classDecl.sym)
+    val name = Name.fromJName(classDecl.sym.fullname, interner)
+    val symbol = Symbol.fromJava(classDecl.sym, interner)
     val typeParams = classDecl.getTypeParameters.map(traverseTypeParam).toList
     val extendsCl = Option(classDecl.getExtendsClause).map(traverseExpr)
     val implementsCl = classDecl.getImplementsClause.map(traverseExpr).toList
-    val members = classDecl.getMembers.map(traverseTree).toList
+    val members = classDecl.getMembers.filter {
+      case _: JCTree.JCBlock => !signaturesOnly
+      case _                 => true
+    }.map(traverseTree).toList
 
     ClassDecl(name, symbol, typeParams, extendsCl, implementsCl, members)
   }
@@ -455,22 +506,25 @@ class JTreeTraverse(val errorHanlder: ErrorHandler) {
 
   private def traverseIdent(ident: JCTree.JCIdent)(
       implicit pos: Position): Ident = {
-    val symbol = Symbol.fromJava(ident.sym)
-    val name = Name.fromJName(ident.getName)
+    val symbol = Symbol.fromJava(ident.sym, interner)
+    val name = Name.fromJName(ident.getName, interner)
     val tp = JExprType(ident.`type`)
 
     Ident(symbol, name, tp)
   }
 
   private def traverseFieldAccess(fieldAccess: JCTree.JCFieldAccess)(
-      implicit pos: Position): FieldAccess = {
-    val name = Name.fromJName(fieldAccess.getIdentifier)
+      implicit pos: Position): Expr = {
+    val name = Name.fromJName(fieldAccess.getIdentifier, interner)
     val selected = traverseExpr(fieldAccess.getExpression)
-    val symbol = Symbol.fromJava(fieldAccess.sym)
+    val symbol = Symbol.fromJava(fieldAccess.sym, interner)
 
     val tp = JExprType(fieldAccess.`type`)
 
-    FieldAccess(name, symbol, selected, tp)
+    val selectedType = fieldAccess.getExpression.`type`
+    if (selectedType != null && selectedType.getTag == TypeTag.ARRAY &&
+        name.str == "length") ArrayLength(selected, tp)
+    else FieldAccess(name, symbol, selected, tp)
   }
 
   private def traverseArrayAccess(arrayAccess: JCTree.JCArrayAccess)(
@@ -584,14 +638,14 @@ class JTreeTraverse(val errorHanlder: ErrorHandler) {
 
   private def traverseContinue(contStmt: JCTree.JCContinue)(
       implicit pos: Position): Continue = {
-    val label = Option(contStmt.getLabel).map(Name.fromJName)
+    val label = Option(contStmt.getLabel).map(Name.fromJName(_, interner))
 
     Continue(label)
   }
 
   private def traverseBreak(breakStmt: JCTree.JCBreak)(
       implicit pos: Position): Break = {
-    val label = Option(breakStmt.getLabel).map(Name.fromJName)
+    val label = Option(breakStmt.getLabel).map(Name.fromJName(_, interner))
 
     Break(label)
   }
@@ -642,7 +696,7 @@ class JTreeTraverse(val errorHanlder: ErrorHandler) {
 
   private def traverseCase(caseStmt: JCTree.JCCase)(
       implicit pos: Position): Case = {
-    val pat = traverseExpr(caseStmt.getExpression)
+    val pat = Option(caseStmt.getExpression).map(traverseExpr)
     val statements = caseStmt.getStatements.map(traverseStmt).toList
 
     Case(pat, statements)
@@ -666,7 +720,7 @@ class JTreeTraverse(val errorHanlder: ErrorHandler) {
 
   private def traverseLabeledStmt(labeledStmt: JCTree.JCLabeledStatement)(
       implicit pos: Position): LabeledStmt = {
-    val label = Name.fromJName(labeledStmt.getLabel)
+    val label = Name.fromJName(labeledStmt.getLabel, interner)
     val body = traverseStmt(labeledStmt.body)
 
     LabeledStmt(label, body)
@@ -709,7 +763,7 @@ class JTreeTraverse(val errorHanlder: ErrorHandler) {
 
   private def traverseMemberRef(memberRef: JCTree.JCMemberReference)(
       implicit pos: Position): MemberRef = {
-    val name = Name.fromJName(memberRef.getName)
+    val name = Name.fromJName(memberRef.getName, interner)
     val typeArgs = memberRef.getTypeArguments.map(traverseExpr).toList
     val qualExpr = traverseExpr(memberRef.getQualifierExpression)
     val mode = if (memberRef.getMode == MemberReferenceTree.ReferenceMode.INVOKE) Invoke else New
@@ -0,0 +1,133 @@
+package scalajs_java.traversals
+
+import com.sun.tools.javac.code.Flags
+import com.sun.tools.javac.code.Symbol.{ClassSymbol, MethodSymbol}
+import com.sun.tools.javac.tree.JCTree._
+import com.sun.tools.javac.tree.{JCTree, TreeInfo, TreeScanner}
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable
+
+/** Finds the methods that may be called when the program runs, so that
+  * the bodies of the other ones are never converted nor compiled.
+  *
+  * Works on the attributed javac trees of the whole project and is
+  * name-based (so conservative): starting from the `main` methods, the
+  * constructors and the initializers, every method named like a method
+  * called (or referenced) from reachable code is reachable.
+  *
+  * Instance methods that library code may call are always reachable:
+  * the ones overriding the methods of `Object` and all the ones of
+  * classes with a supertype outside of the project. */
+class ReachabilityScan(units: List[JCCompilationUnit]) {
+
+  private val objectMethods =
+    Set("toString", "equals", "hashCode", "clone", "finalize")
+
+  private val methodsByName = mutable.HashMap.empty[String, List[JCMethodDecl]]
+  // by full name: the units may come from several javac contexts
+  private val projectClasses = mutable.HashSet.empty[String]
+  private val classOf = mutable.HashMap.empty[JCMethodDecl, ClassSymbol]
+
+  private val reachable = mutable.HashSet.empty[JCMethodDecl]
+  private val calledNames = mutable.HashSet.empty[String]
+  private val queue = mutable.Queue.empty[JCTree]
+
+  /** Collects the methods and classes, queues the initializers */
+  private class Collector extends TreeScanner {
+    override def visitClassDef(classDecl: JCClassDecl): Unit = {
+      projectClasses += classDecl.sym.flatname.toString
+
+      classDecl.defs.foreach {
+        case md: JCMethodDecl =>
+          val name = md.name.toString
+          methodsByName(name) = md :: methodsByName.getOrElse(name, Nil)
+          classOf(md) = classDecl.sym
+
+        case vd: JCVariableDecl if vd.init != null =>
+          queue += vd.init
+
+        case block: JCBlock =>
+          queue += block
+
+        case _ =>
+      }
+
+      super.visitClassDef(classDecl)
+    }
+  }
+
+  /** Collects the names of the methods called from a tree. Nested classes
+    * are not entered: their members are handled on their own. */
+  private class CallScanner extends TreeScanner {
+    override def visitClassDef(classDecl: JCClassDecl): Unit = ()
+
+    override def visitApply(apply: JCMethodInvocation): Unit = {
+      val name = TreeInfo.name(apply.meth)
+      if (name != null)
+        markName(name.toString)
+      super.visitApply(apply)
+    }
+
+    override def visitReference(ref: JCMemberReference): Unit = {
+      markName(ref.name.toString)
+      super.visitReference(ref)
+    }
+  }
+
+  /** Whether the class (or one of its superclasses in the project)
+    * extends or implements a type outside of the project */
+  private def hasLibrarySupertype(cls: ClassSymbol): Boolean = {
+    val supertypes = Option(cls.getSuperclass).toList ++ cls.getInterfaces
+    supertypes.map(_.tsym).exists {
+      case sup: ClassSymbol if projectClasses(sup.flatname.toString) =>
+        hasLibrarySupertype(sup)
+
+      case sup: ClassSymbol =>
+        sup.getQualifiedName.toString != "java.lang.Object"
+
+      case _ =>
+        false
+    }
+  }
+
+  private def isRoot(md: JCMethodDecl): Boolean = {
+    val name = md.name.toString
+    val isStatic = (md.mods.flags & Flags.STATIC) != 0
+
+    (isStatic && name == "main") || TreeInfo.isConstructor(md) ||
+      (!isStatic && (objectMethods(name) || hasLibrarySupertype(classOf(md))))
+  }
+
+  private def markMethod(md: JCMethodDecl): Unit = {
+    if (reachable.add(md) && md.body != null)
+      queue += md.body
+  }
+
+  private def markName(name: String): Unit = {
+    if (calledNames.add(name))
+      methodsByName.getOrElse(name, Nil).foreach(markMethod)
+  }
+
+  units.foreach(_.accept(new Collector))
+  methodsByName.values.flatten.filter(isRoot).foreach(markMethod)
+
+  private val scanner = new CallScanner
+  while (queue.nonEmpty)
+    queue.dequeue().accept(scanner)
+
+  // Only the symbols are kept: the trees may be released before
+  // `isReachable` is asked about them (in the streaming mode).
+  private val reachableSymbols: Set[MethodSymbol] = reachable.map(_.sym).toSet
+
+  val methodCount: Int = classOf.size
+
+  methodsByName.clear()
+  classOf.clear()
+  reachable.clear()
+
+  def isReachable(methodDecl: JCMethodDecl): Boolean =
+    reachableSymbols(methodDecl.sym)
+
+  def reachableCount: Int = reachableSymbols.size
+}
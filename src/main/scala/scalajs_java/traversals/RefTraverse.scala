@@ -5,12 +5,11 @@ import scalajs_java.utils.scope.{MethodElem, Scope, ScopeState}
 import scalajs_java.utils.ErrorHandler
 
 /** Traverses the tree constructing the scope and tagging
-  * `Ident` nodes with the tree nodes they reference. */
-class RefTraverse(errHandler: ErrorHandler, initScope: ScopeState) extends Traverse with Scope { self =>
-
-  override val errorHanlder: ErrorHandler = errHandler
-
-  scopeState = initScope
+  * `Ident` nodes with the tree nodes they reference.
+  *
+  * Stackable: can be mixed with other taggings into a single
+  * traversal (see `TaggingTraverse`). */
+trait RefTagging extends Traverse with Scope {
 
   override def traverse(classDecl: ClassDecl): ClassDecl = {
     withScope[ClassDecl, ClassDecl](classDecl.members, classDecl)(super.traverse)
@@ -24,6 +23,12 @@ class RefTraverse(errHandler: ErrorHandler, initScope: ScopeState) extends Trave
     withScope[Block, Block](block.statements, block)(super.traverse)
   }
 
+  // the locals declared in a case are visible in the following ones
+  override def traverse(switch: Switch): Switch = {
+    withScope[Switch, Switch](switch.cases.flatMap(_.statements), switch)(
+      super.traverse)
+  }
+
   override def traverse(forLoop: ForLoop): Statement = {
     withScope[ForLoop, Statement](forLoop.init, forLoop)(super.traverse)
   }
@@ -34,34 +39,47 @@ class RefTraverse(errHandler: ErrorHandler, initScope: ScopeState) extends Trave
   }
 
   override def traverse(ident: Ident): Ident = {
-    val symbol = ident.name.str
-    val referredTree = scopeState.getElem(symbol)
+    val referredTree = scopeState.getElem(ident.symbol, ident.name.str)
 
-    ident.copy(refVar = referredTree)(ident.pos)
+    super.traverse(ident.copy(refVar = referredTree)(ident.pos))
   }
 
   override def traverse(methodInv: MethodInv): MethodInv = {
     implicit val pos = methodInv.pos
 
-    val refTree: Option[MethodElem] = methodInv.methodSel match {
-      case FieldAccess(name, _, _, _) =>
-        scopeState.getMethod(name)
+    // the method javac resolved the call to, if it is declared in the
+    // project (overloads are never told apart by name)
+    val resolved = methodInv.methodSym.flatMap(scopeState.getBySymbol) collect {
+      case mElem: MethodElem => mElem
+    }
+
+    val refTree: Option[MethodElem] = resolved orElse (methodInv.methodSel match {
+      case FieldAccess(name, sym, _, _) =>
+        scopeState.getMethod(sym, name)
 
-      case Ident(_, name, _, rv, _) =>
+      case Ident(sym, name, _, rv, _) =>
         if (rv.isDefined) rv.flatMap {
           case mElem: MethodElem => Some(mElem)
           case _                 => None
-        } else scopeState.getMethod(name)
+        } else scopeState.getMethod(sym, name)
 
       case _ =>
         None
-    }
+    })
 
     MethodInv(
       traverse(methodInv.methodSel),
       methodInv.typeArgs.map(traverse),
       methodInv.args.map(traverse),
       methodInv.tp,
-      refDecl = refTree)
+      refDecl = refTree,
+      methodSym = methodInv.methodSym)
   }
 }
+
+class RefTraverse(errHandler: ErrorHandler, initScope: ScopeState) extends RefTagging { self =>
+
+  override val errorHanlder: ErrorHandler = errHandler
+
+  scopeState = initScope
+}
@@ -5,16 +5,21 @@ import scalajs_java.utils.ErrorHandler
 
 /** Collects all the assignments like:
   * static int x = 42;
-  */
-class StaticInitsTraverse(val errorHandler: ErrorHandler) extends Traverse {
+  *
+  * The initializers are taken from the traversed declarations, so when
+  * stacked with other taggings they are collected already tagged. */
+trait StaticInitsCollecting extends Traverse {
 
   var inits: Map[String, Expr] = Map.empty
 
   override def traverse(varDecl: VarDecl): VarDecl = {
-    if (varDecl.symbol.isStatic && varDecl.init.isDefined)
-      inits += (varDecl.name.str -> varDecl.init.get)
+    val res = super.traverse(varDecl)
+    if (res.symbol.isStatic && res.init.isDefined)
+      inits += (res.name.str -> res.init.get)
 
-    super.traverse(varDecl)
+    res
   }
 
 }
+
+class StaticInitsTraverse(val errorHandler: ErrorHandler) extends StaticInitsCollecting
@@ -0,0 +1,20 @@
+package scalajs_java.traversals
+
+import scalajs_java.utils.{ErrorHandler, Mangler}
+import scalajs_java.utils.scope.ScopeState
+
+/** Reference tagging, enclosing class tagging and static initializers
+  * collection, fused into a single walk over the tree.
+  *
+  * Equivalent to running `RefTraverse`, `EnclClassTraverse` and
+  * `StaticInitsTraverse` one after the other: the taggings touch
+  * different fields of the nodes and do not read each other's results. */
+class TaggingTraverse(errHandler: ErrorHandler, initScope: ScopeState,
+                      initMangler: Mangler)
+    extends RefTagging with EnclClassTagging with StaticInitsCollecting {
+
+  override val errorHanlder: ErrorHandler = errHandler
+
+  scopeState = initScope
+  mangler = initMangler
+}
@@ -1,79 +1,156 @@
 package scalajs_java.traversals
 
+import scala.annotation.switch
 import scalajs_java.trees._
 
 /** Generic traversal of a `Tree`.
   *
   * To create a specific traversal just extend this trait and override
-  * the methods you need. */
+  * the methods you need.
+  *
+  * Nodes (and lists, options) whose children did not change are returned
+  * as they are, so a traversal touching only a few kinds of nodes does not
+  * copy the whole tree. Rebuilt nodes keep their positions. */
 trait Traverse {
 
+  /** Traverses the elements of a list, returning the same list if none of
+    * them changed */
+  @inline protected final def traverseList[T <: AnyRef](list: List[T])(
+      f: T => T): List[T] =
+    list.mapConserve(f)
+
+  /** Like `traverseList`, for an optional tree */
+  @inline protected final def traverseOpt[T <: AnyRef](opt: Option[T])(
+      f: T => T): Option[T] = opt match {
+    case Some(tree) =>
+      val newTree = f(tree)
+      if (newTree eq tree) opt else Some(newTree)
+
+    case None =>
+      None
+  }
+
   def traverse(compilationUnit: CompilationUnit): CompilationUnit = {
-    CompilationUnit(compilationUnit.imports.map(traverse),
-      compilationUnit.typeDecls.map(traverse))(compilationUnit.pos)
+    val imports = traverseList(compilationUnit.imports)(traverse)
+    val typeDecls = traverseList(compilationUnit.typeDecls)(traverse)
+
+    if ((imports eq compilationUnit.imports) &&
+        (typeDecls eq compilationUnit.typeDecls)) compilationUnit
+    else CompilationUnit(imports, typeDecls,
+      compilationUnit.sourceFile)(compilationUnit.pos)
   }
 
   def traverse(imp: Import): Import = {
-    Import(traverse(imp.qualifiedIdent))(imp.pos)
+    val qualifiedIdent = traverse(imp.qualifiedIdent)
+
+    if (qualifiedIdent eq imp.qualifiedIdent) imp
+    else Import(qualifiedIdent)(imp.pos)
   }
 
   def traverse(methodDecl: MethodDecl): MethodDecl = {
-    MethodDecl(methodDecl.name, methodDecl.symbol,
-      traverse(methodDecl.modifiers).asInstanceOf[Modifiers],
-      methodDecl.typeParams.map(traverse), methodDecl.recvParam.map(traverse),
-      methodDecl.params.map(traverse), methodDecl.thrown.map(traverse),
-      methodDecl.retType.map(traverse), traverse(methodDecl.body),
-      methodDecl.defVal.map(traverse))(methodDecl.pos)
+    val modifiers = traverse(methodDecl.modifiers).asInstanceOf[Modifiers]
+    val typeParams = traverseList(methodDecl.typeParams)(traverse)
+    val recvParam = traverseOpt(methodDecl.recvParam)(traverse)
+    val params = traverseList(methodDecl.params)(traverse)
+    val thrown = traverseList(methodDecl.thrown)(traverse)
+    val retType = traverseOpt(methodDecl.retType)(traverse)
+    val body = traverse(methodDecl.body)
+    val defVal = traverseOpt(methodDecl.defVal)(traverse)
+
+    if ((modifiers eq methodDecl.modifiers) &&
+        (typeParams eq methodDecl.typeParams) &&
+        (recvParam eq methodDecl.recvParam) &&
+        (params eq methodDecl.params) && (thrown eq methodDecl.thrown) &&
+        (retType eq methodDecl.retType) && (body eq methodDecl.body) &&
+        (defVal eq methodDecl.defVal)) {
+      methodDecl
+    } else {
+      MethodDecl(methodDecl.name, methodDecl.symbol, modifiers, typeParams,
+        recvParam, params, thrown, retType, body, defVal)(methodDecl.pos)
+    }
   }
 
   def traverse(typeParam: TypeParam): TypeParam = {
-    TypeParam(typeParam.name, typeParam.bounds.map(traverse),
-      typeParam.annotations.map(traverse))(typeParam.pos)
+    val bounds = traverseList(typeParam.bounds)(traverse)
+    val annotations = traverseList(typeParam.annotations)(traverse)
+
+    if ((bounds eq typeParam.bounds) &&
+        (annotations eq typeParam.annotations)) typeParam
+    else TypeParam(typeParam.name, bounds, annotations)(typeParam.pos)
   }
 
   def traverse(catchTree: CatchTree): CatchTree = {
-    CatchTree(traverse(catchTree.param), traverse(catchTree.body))(
-      catchTree.pos)
+    val param = traverse(catchTree.param)
+    val body = traverse(catchTree.body)
+
+    if ((param eq catchTree.param) && (body eq catchTree.body)) catchTree
+    else CatchTree(param, body)(catchTree.pos)
   }
 
   def traverse(letExpr: LetExpr): LetExpr = {
-    LetExpr(letExpr.defs.map(traverse), traverse(letExpr.expr), letExpr.tp)(
-      letExpr.pos)
+    val defs = traverseList(letExpr.defs)(traverse)
+    val expr = traverse(letExpr.expr)
+
+    if ((defs eq letExpr.defs) && (expr eq letExpr.expr)) letExpr
+    else LetExpr(defs, expr, letExpr.tp)(letExpr.pos)
   }
 
   def traverse(annotation: Annotation): Annotation = {
-    Annotation(traverse(annotation.annotationType),
-      annotation.args.map(traverse), annotation.tp)(annotation.pos)
+    val annotationType = traverse(annotation.annotationType)
+    val args = traverseList(annotation.args)(traverse)
+
+    if ((annotationType eq annotation.annotationType) &&
+        (args eq annotation.args)) annotation
+    else Annotation(annotationType, args, annotation.tp)(annotation.pos)
   }
 
   def traverse(annotatedType: AnnotatedType): AnnotatedType = {
-    AnnotatedType(annotatedType.annotations.map(traverse),
-      traverse(annotatedType.underlyingType), annotatedType.tp)(
-      annotatedType.pos)
+    val annotations = traverseList(annotatedType.annotations)(traverse)
+    val underlyingType = traverse(annotatedType.underlyingType)
+
+    if ((annotations eq annotatedType.annotations) &&
+        (underlyingType eq annotatedType.underlyingType)) {
+      annotatedType
+    } else {
+      AnnotatedType(annotations, underlyingType, annotatedType.tp)(
+        annotatedType.pos)
+    }
   }
 
   def traverse(wildcard: Wildcard): Wildcard = {
-    Wildcard(traverse(wildcard.bound), wildcard.tp)(wildcard.pos)
+    val bound = traverse(wildcard.bound)
+
+    if (bound eq wildcard.bound) wildcard
+    else Wildcard(bound, wildcard.tp)(wildcard.pos)
   }
 
   def traverse(typeIntersection: TypeIntersection): TypeIntersection = {
-    TypeIntersection(typeIntersection.bounds.map(traverse),
-      typeIntersection.tp)(typeIntersection.pos)
+    val bounds = traverseList(typeIntersection.bounds)(traverse)
+
+    if (bounds eq typeIntersection.bounds) typeIntersection
+    else TypeIntersection(bounds, typeIntersection.tp)(typeIntersection.pos)
   }
 
   def traverse(typeUnion: TypeUnion): TypeUnion = {
-    TypeUnion(typeUnion.alternatives.map(traverse), typeUnion.tp)(
-      typeUnion.pos)
+    val alternatives = traverseList(typeUnion.alternatives)(traverse)
+
+    if (alternatives eq typeUnion.alternatives) typeUnion
+    else TypeUnion(alternatives, typeUnion.tp)(typeUnion.pos)
   }
 
   def traverse(typeApply: TypeApply): TypeApply = {
-    TypeApply(traverse(typeApply.tpe), typeApply.typeArgs.map(traverse),
-      typeApply.tp)(typeApply.pos)
+    val tpe = traverse(typeApply.tpe)
+    val typeArgs = traverseList(typeApply.typeArgs)(traverse)
+
+    if ((tpe eq typeApply.tpe) && (typeArgs eq typeApply.typeArgs)) typeApply
+    else TypeApply(tpe, typeArgs, typeApply.tp)(typeApply.pos)
   }
 
   def traverse(arrayTypeTree: ArrayTypeTree): ArrayTypeTree = {
-    ArrayTypeTree(traverse(arrayTypeTree.elemType), arrayTypeTree.tp)(
-      arrayTypeTree.pos)
+    val elemType = traverse(arrayTypeTree.elemType)
+
+    if (elemType eq arrayTypeTree.elemType) arrayTypeTree
+    else ArrayTypeTree(elemType, arrayTypeTree.tp)(arrayTypeTree.pos)
   }
 
   def traverse(classLiteral: ClassLiteral): ClassLiteral = classLiteral
@@ -83,233 +160,446 @@ trait Traverse {
   def traverse(ident: Ident): Ident = ident
 
   def traverse(fieldAccess: FieldAccess): FieldAccess = {
-    FieldAccess(fieldAccess.name, fieldAccess.symbol,
-      traverse(fieldAccess.selected), fieldAccess.tp)(fieldAccess.pos)
+    val selected = traverse(fieldAccess.selected)
+
+    if (selected eq fieldAccess.selected) fieldAccess
+    else FieldAccess(fieldAccess.name, fieldAccess.symbol, selected,
+      fieldAccess.tp)(fieldAccess.pos)
   }
 
   def traverse(arrayAccess: ArrayAccess): ArrayAccess = {
-    ArrayAccess(traverse(arrayAccess.indexed), traverse(arrayAccess.index),
-      arrayAccess.tp)(arrayAccess.pos)
+    val indexed = traverse(arrayAccess.indexed)
+    val index = traverse(arrayAccess.index)
+
+    if ((indexed eq arrayAccess.indexed) && (index eq arrayAccess.index))
+      arrayAccess
+    else
+      ArrayAccess(indexed, index, arrayAccess.tp)(arrayAccess.pos)
+  }
+
+  def traverse(arrayLength: ArrayLength): ArrayLength = {
+    val array = traverse(arrayLength.array)
+
+    if (array eq arrayLength.array) arrayLength
+    else ArrayLength(array, arrayLength.tp)(arrayLength.pos)
   }
 
   def traverse(instanceOf: InstanceOf): InstanceOf = {
-    InstanceOf(traverse(instanceOf.clazz), traverse(instanceOf.expr),
-      instanceOf.tp)(instanceOf.pos)
+    val clazz = traverse(instanceOf.clazz)
+    val expr = traverse(instanceOf.expr)
+
+    if ((clazz eq instanceOf.clazz) && (expr eq instanceOf.expr)) instanceOf
+    else InstanceOf(clazz, expr, instanceOf.tp)(instanceOf.pos)
   }
 
   def traverse(typeCast: TypeCast): TypeCast = {
-    TypeCast(traverse(typeCast.clazz), traverse(typeCast.expr), typeCast.tp)(
-      typeCast.pos)
+    val clazz = traverse(typeCast.clazz)
+    val expr = traverse(typeCast.expr)
+
+    if ((clazz eq typeCast.clazz) && (expr eq typeCast.expr)) typeCast
+    else TypeCast(clazz, expr, typeCast.tp)(typeCast.pos)
   }
 
   def traverse(binary: Binary): Binary = {
-    Binary(binary.op, traverse(binary.left), traverse(binary.right),
-      binary.tp)(binary.pos)
+    val left = traverse(binary.left)
+    val right = traverse(binary.right)
+
+    if ((left eq binary.left) && (right eq binary.right)) binary
+    else Binary(binary.op, left, right, binary.tp)(binary.pos)
   }
 
   def traverse(unary: Unary): Expr = {
-    Unary(unary.op, traverse(unary.arg), unary.tp)(unary.pos)
+    val arg = traverse(unary.arg)
+
+    if (arg eq unary.arg) unary
+    else Unary(unary.op, arg, unary.tp)(unary.pos)
   }
 
   def traverse(assignOp: AssignOp): Expr = {
-    AssignOp(traverse(assignOp.variable), assignOp.op,
-      traverse(assignOp.expr), assignOp.tp)(assignOp.pos)
+    val variable = traverse(assignOp.variable)
+    val expr = traverse(assignOp.expr)
+
+    if ((variable eq assignOp.variable) && (expr eq assignOp.expr)) assignOp
+    else AssignOp(variable, assignOp.op, expr, assignOp.tp)(assignOp.pos)
   }
 
   def traverse(assign: Assign): Assign = {
-    Assign(traverse(assign.variable), traverse(assign.expr), assign.tp)(
-      assign.pos)
+    val variable = traverse(assign.variable)
+    val expr = traverse(assign.expr)
+
+    if ((variable eq assign.variable) && (expr eq assign.expr)) assign
+    else Assign(variable, expr, assign.tp)(assign.pos)
   }
 
   def traverse(parens: Parens): Parens = {
-    Parens(traverse(parens.expr), parens.tp)(parens.pos)
+    val expr = traverse(parens.expr)
+
+    if (expr eq parens.expr) parens
+    else Parens(expr, parens.tp)(parens.pos)
   }
 
   def traverse(newArray: NewArray): NewArray = {
-    NewArray(newArray.annotations.map(traverse),
-      newArray.dimAnnotations.map(_.map(traverse)),
-      newArray.dimensions.map(traverse), newArray.initializers.map(traverse),
-      newArray.elemType.map(traverse), newArray.tp)(newArray.pos)
+    val annotations = traverseList(newArray.annotations)(traverse)
+    val dimAnnotations = traverseList(newArray.dimAnnotations)(
+      annots => traverseList(annots)(traverse))
+    val dimensions = traverseList(newArray.dimensions)(traverse)
+    val initializers = traverseList(newArray.initializers)(traverse)
+    val elemType = traverseOpt(newArray.elemType)(traverse)
+
+    if ((annotations eq newArray.annotations) &&
+        (dimAnnotations eq newArray.dimAnnotations) &&
+        (dimensions eq newArray.dimensions) &&
+        (initializers eq newArray.initializers) &&
+        (elemType eq newArray.elemType)) {
+      newArray
+    } else {
+      NewArray(annotations, dimAnnotations, dimensions, initializers,
+        elemType, newArray.tp)(newArray.pos)
+    }
   }
 
   def traverse(methodInv: MethodInv): MethodInv = {
-    MethodInv(traverse(methodInv.methodSel), methodInv.typeArgs.map(traverse),
-      methodInv.args.map(traverse), methodInv.tp, methodInv.refDecl)(
-      methodInv.pos)
+    val methodSel = traverse(methodInv.methodSel)
+    val typeArgs = traverseList(methodInv.typeArgs)(traverse)
+    val args = traverseList(methodInv.args)(traverse)
+
+    if ((methodSel eq methodInv.methodSel) &&
+        (typeArgs eq methodInv.typeArgs) && (args eq methodInv.args)) {
+      methodInv
+    } else {
+      MethodInv(methodSel, typeArgs, args, methodInv.tp, methodInv.refDecl,
+        methodInv.methodSym)(
+        methodInv.pos)
+    }
   }
 
   def traverse(conditional: Conditional): Conditional = {
-    Conditional(traverse(conditional.cond), traverse(conditional.trueExpr),
-      traverse(conditional.falseExpr), conditional.tp)(conditional.pos)
+    val cond = traverse(conditional.cond)
+    val trueExpr = traverse(conditional.trueExpr)
+    val falseExpr = traverse(conditional.falseExpr)
+
+    if ((cond eq conditional.cond) && (trueExpr eq conditional.trueExpr) &&
+        (falseExpr eq conditional.falseExpr)) conditional
+    else Conditional(cond, trueExpr, falseExpr, conditional.tp)(conditional.pos)
   }
 
   def traverse(newClass: NewClass): NewClass = {
-    NewClass(traverse(newClass.ident), newClass.typeArgs.map(traverse),
-      newClass.args.map(traverse), newClass.classBody.map(traverse),
-      newClass.enclExpr.map(traverse), newClass.tp)(newClass.pos)
+    val ident = traverse(newClass.ident)
+    val typeArgs = traverseList(newClass.typeArgs)(traverse)
+    val args = traverseList(newClass.args)(traverse)
+    val classBody = traverseOpt(newClass.classBody)(traverse)
+    val enclExpr = traverseOpt(newClass.enclExpr)(traverse)
+
+    if ((ident eq newClass.ident) && (typeArgs eq newClass.typeArgs) &&
+        (args eq newClass.args) && (classBody eq newClass.classBody) &&
+        (enclExpr eq newClass.enclExpr)) {
+      newClass
+    } else {
+      NewClass(ident, typeArgs, args, classBody, enclExpr, newClass.tp,
+        newClass.ctorSym)(
+        newClass.pos)
+    }
   }
 
   def traverse(memberRef: MemberRef): MemberRef = {
-    MemberRef(memberRef.name, memberRef.typeArgs.map(traverse),
-      traverse(memberRef.qualExpr), memberRef.mode, memberRef.polyKind,
-      memberRef.tp)(memberRef.pos)
+    val typeArgs = traverseList(memberRef.typeArgs)(traverse)
+    val qualExpr = traverse(memberRef.qualExpr)
+
+    if ((typeArgs eq memberRef.typeArgs) && (qualExpr eq memberRef.qualExpr)) {
+      memberRef
+    } else {
+      MemberRef(memberRef.name, typeArgs, qualExpr, memberRef.mode,
+        memberRef.polyKind, memberRef.tp)(memberRef.pos)
+    }
   }
 
   def traverse(lambda: Lambda): Expr = {
-    Lambda(lambda.params.map(traverse), traverse(lambda.body),
-      lambda.bodyKind, lambda.tp)(lambda.pos)
+    val params = traverseList(lambda.params)(traverse)
+    val body = traverse(lambda.body)
+
+    if ((params eq lambda.params) && (body eq lambda.body)) lambda
+    else Lambda(params, body, lambda.bodyKind, lambda.tp)(lambda.pos)
   }
 
   def traverse(classDecl: ClassDecl): ClassDecl = {
-    ClassDecl(classDecl.name, classDecl.symbol,
-      classDecl.typeParams.map(traverse),
-      classDecl.extendsCl.map(traverse),
-      classDecl.implementsCl.map(traverse),
-      classDecl.members.map(traverse))(classDecl.pos)
+    val typeParams = traverseList(classDecl.typeParams)(traverse)
+    val extendsCl = traverseOpt(classDecl.extendsCl)(traverse)
+    val implementsCl = traverseList(classDecl.implementsCl)(traverse)
+    val members = traverseList(classDecl.members)(traverse)
+
+    if ((typeParams eq classDecl.typeParams) &&
+        (extendsCl eq classDecl.extendsCl) &&
+        (implementsCl eq classDecl.implementsCl) &&
+        (members eq classDecl.members)) {
+      classDecl
+    } else {
+      ClassDecl(classDecl.name, classDecl.symbol, typeParams, extendsCl,
+        implementsCl, members)(classDecl.pos)
+    }
   }
 
   def traverse(varDecl: VarDecl): VarDecl = {
-    VarDecl(varDecl.mods, varDecl.name, varDecl.nameExpr.map(traverse),
-      varDecl.symbol, traverse(varDecl.varType),
-      varDecl.init.map(traverse), varDecl.kind)(varDecl.pos)
+    val nameExpr = traverseOpt(varDecl.nameExpr)(traverse)
+    val varType = traverse(varDecl.varType)
+    val init = traverseOpt(varDecl.init)(traverse)
+
+    if ((nameExpr eq varDecl.nameExpr) && (varType eq varDecl.varType) &&
+        (init eq varDecl.init)) {
+      varDecl
+    } else {
+      VarDecl(varDecl.mods, varDecl.name, nameExpr, varDecl.symbol, varType,
+        init, varDecl.kind)(varDecl.pos)
+    }
   }
 
   def traverse(assert: Assert): Assert = {
-    Assert(traverse(assert.cond), traverse(assert.detail))(assert.pos)
+    val cond = traverse(assert.cond)
+    val detail = traverse(assert.detail)
+
+    if ((cond eq assert.cond) && (detail eq assert.detail)) assert
+    else Assert(cond, detail)(assert.pos)
   }
 
   def traverse(thr: Throw): Throw = {
-    Throw(traverse(thr.expr))(thr.pos)
+    val expr = traverse(thr.expr)
+
+    if (expr eq thr.expr) thr
+    else Throw(expr)(thr.pos)
   }
 
   def traverse(ret: Return): Return = {
-    Return(ret.expr.map(traverse))(ret.pos)
+    val expr = traverseOpt(ret.expr)(traverse)
+
+    if (expr eq ret.expr) ret
+    else Return(expr)(ret.pos)
   }
 
   def traverse(exprStmt: ExprStatement): ExprStatement = {
-    ExprStatement(traverse(exprStmt.expr))(exprStmt.pos)
+    val expr = traverse(exprStmt.expr)
+
+    if (expr eq exprStmt.expr) exprStmt
+    else ExprStatement(expr)(exprStmt.pos)
   }
 
   def traverse(ifStmt: If): If = {
-    If(traverse(ifStmt.cond), traverse(ifStmt.thenStmt),
-      ifStmt.elseStmt.map(traverse))(ifStmt.pos)
+    val cond = traverse(ifStmt.cond)
+    val thenStmt = traverse(ifStmt.thenStmt)
+    val elseStmt = traverseOpt(ifStmt.elseStmt)(traverse)
+
+    if ((cond eq ifStmt.cond) && (thenStmt eq ifStmt.thenStmt) &&
+        (elseStmt eq ifStmt.elseStmt)) ifStmt
+    else If(cond, thenStmt, elseStmt)(ifStmt.pos)
   }
 
   def traverse(block: Block): Block = {
-    Block(block.statements.map(traverse), block.isStatic)(block.pos)
+    val statements = traverseList(block.statements)(traverse)
+
+    if (statements eq block.statements) block
+    else Block(statements, block.isStatic)(block.pos)
   }
 
   def traverse(tryStmt: TryStmt): TryStmt = {
-    TryStmt(tryStmt.resources.map(traverse),
-      traverse(tryStmt.body),
-      tryStmt.catches.map(traverse),
-      tryStmt.finallyBlk.map(traverse))(tryStmt.pos)
+    val resources = traverseList(tryStmt.resources)(traverse)
+    val body = traverse(tryStmt.body)
+    val catches = traverseList(tryStmt.catches)(traverse)
+    val finallyBlk = traverseOpt(tryStmt.finallyBlk)(traverse)
+
+    if ((resources eq tryStmt.resources) && (body eq tryStmt.body) &&
+        (catches eq tryStmt.catches) && (finallyBlk eq tryStmt.finallyBlk))
+      tryStmt
+    else
+      TryStmt(resources, body, catches, finallyBlk)(tryStmt.pos)
   }
 
   def traverse(caseStmt: Case): Case = {
-    Case(traverse(caseStmt.pat), caseStmt.statements.map(traverse))(
-      caseStmt.pos)
+    val pat = traverseOpt(caseStmt.pat)(traverse)
+    val statements = traverseList(caseStmt.statements)(traverse)
+
+    if ((pat eq caseStmt.pat) && (statements eq caseStmt.statements)) caseStmt
+    else Case(pat, statements)(caseStmt.pos)
   }
 
   def traverse(switch: Switch): Switch = {
-    Switch(traverse(switch.selector),
-      switch.cases.map(traverse))(switch.pos)
+    val selector = traverse(switch.selector)
+    val cases = traverseList(switch.cases)(traverse)
+
+    if ((selector eq switch.selector) && (cases eq switch.cases)) switch
+    else Switch(selector, cases)(switch.pos)
   }
 
   def traverse(synchronized: Synchronized): Synchronized = {
-    Synchronized(traverse(synchronized.lock),
-      traverse(synchronized.body))(synchronized.pos)
+    val lock = traverse(synchronized.lock)
+    val body = traverse(synchronized.body)
+
+    if ((lock eq synchronized.lock) && (body eq synchronized.body)) synchronized
+    else Synchronized(lock, body)(synchronized.pos)
   }
 
   def traverse(labeledStmt: LabeledStmt): LabeledStmt = {
-    LabeledStmt(labeledStmt.label, traverse(labeledStmt.body))(
-      labeledStmt.pos)
+    val body = traverse(labeledStmt.body)
+
+    if (body eq labeledStmt.body) labeledStmt
+    else LabeledStmt(labeledStmt.label, body)(labeledStmt.pos)
   }
 
   def traverse(enhForLoop: EnhancedForLoop): Statement = {
-    EnhancedForLoop(traverse(enhForLoop.variable),
-      traverse(enhForLoop.expr), traverse(enhForLoop.body))(enhForLoop.pos)
+    val variable = traverse(enhForLoop.variable)
+    val expr = traverse(enhForLoop.expr)
+    val body = traverse(enhForLoop.body)
+
+    if ((variable eq enhForLoop.variable) && (expr eq enhForLoop.expr) &&
+        (body eq enhForLoop.body)) enhForLoop
+    else EnhancedForLoop(variable, expr, body)(enhForLoop.pos)
   }
 
   def traverse(forLoop: ForLoop): Statement = {
-    ForLoop(forLoop.init.map(traverse), forLoop.cond.map(traverse),
-      forLoop.update.map(traverse), traverse(forLoop.body))(forLoop.pos)
+    val init = traverseList(forLoop.init)(traverse)
+    val cond = traverseOpt(forLoop.cond)(traverse)
+    val update = traverseList(forLoop.update)(traverse)
+    val body = traverse(forLoop.body)
+
+    if ((init eq forLoop.init) && (cond eq forLoop.cond) &&
+        (update eq forLoop.update) && (body eq forLoop.body)) forLoop
+    else ForLoop(init, cond, update, body)(forLoop.pos)
   }
 
   def traverse(whileLoop: WhileLoop): Statement = {
-    WhileLoop(traverse(whileLoop.cond), traverse(whileLoop.body))(
-      whileLoop.pos)
+    val cond = traverse(whileLoop.cond)
+    val body = traverse(whileLoop.body)
+
+    if ((cond eq whileLoop.cond) && (body eq whileLoop.body)) whileLoop
+    else WhileLoop(cond, body)(whileLoop.pos)
   }
 
   def traverse(doWhileLoop: DoWhileLoop): Statement = {
-    DoWhileLoop(traverse(doWhileLoop.cond), traverse(doWhileLoop.body))(
-      doWhileLoop.pos)
+    val cond = traverse(doWhileLoop.cond)
+    val body = traverse(doWhileLoop.body)
+
+    if ((cond eq doWhileLoop.cond) && (body eq doWhileLoop.body)) doWhileLoop
+    else DoWhileLoop(cond, body)(doWhileLoop.pos)
   }
 
   def traverse(tree: Tree): Tree = {
-    tree match {
-      case tree: CompilationUnit => traverse(tree)
-      case tree: Import          => traverse(tree)
-      case tree: MethodDecl      => traverse(tree)
-      case tree: TypeParam       => traverse(tree)
-      case tree: CatchTree       => traverse(tree)
-      case tree: Expr            => traverse(tree)
-      case tree: Statement       => traverse(tree)
-      case other                 => other
+    val kind = tree.nodeKind
+    (kind: @switch) match {
+      case NodeKind.CompilationUnit =>
+        traverse(tree.asInstanceOf[CompilationUnit])
+      case NodeKind.Import =>
+        traverse(tree.asInstanceOf[Import])
+      case NodeKind.MethodDecl =>
+        traverse(tree.asInstanceOf[MethodDecl])
+      case NodeKind.TypeParam =>
+        traverse(tree.asInstanceOf[TypeParam])
+      case NodeKind.CatchTree =>
+        traverse(tree.asInstanceOf[CatchTree])
+      case _ =>
+        if (NodeKind.isExpr(kind)) traverse(tree.asInstanceOf[Expr])
+        else if (NodeKind.isStatement(kind))
+          traverse(tree.asInstanceOf[Statement])
+        else tree
     }
   }
 
   def traverse(expression: Expr): Expr = {
-    expression match {
-      case expr: LetExpr          => traverse(expr)
-      case expr: Annotation       => traverse(expr)
-      case expr: AnnotatedType    => traverse(expr)
-      case expr: Wildcard         => traverse(expr)
-      case expr: TypeIntersection => traverse(expr)
-      case expr: TypeUnion        => traverse(expr)
-      case expr: TypeApply        => traverse(expr)
-      case expr: ArrayTypeTree    => traverse(expr)
-      case expr: Literal          => traverse(expr)
-      case expr: Ident            => traverse(expr)
-      case expr: FieldAccess      => traverse(expr)
-      case expr: ArrayAccess      => traverse(expr)
-      case expr: InstanceOf       => traverse(expr)
-      case expr: TypeCast         => traverse(expr)
-      case expr: Binary           => traverse(expr)
-      case expr: Unary            => traverse(expr)
-      case expr: AssignOp         => traverse(expr)
-      case expr: Assign           => traverse(expr)
-      case expr: Parens           => traverse(expr)
-      case expr: NewArray         => traverse(expr)
-      case expr: MethodInv        => traverse(expr)
-      case expr: Conditional      => traverse(expr)
-      case expr: NewClass         => traverse(expr)
-      case expr: MemberRef        => traverse(expr)
-      case expr: Lambda           => traverse(expr)
-      case other                  => other
+    (expression.nodeKind: @switch) match {
+      case NodeKind.LetExpr =>
+        traverse(expression.asInstanceOf[LetExpr])
+      case NodeKind.Annotation =>
+        traverse(expression.asInstanceOf[Annotation])
+      case NodeKind.AnnotatedType =>
+        traverse(expression.asInstanceOf[AnnotatedType])
+      case NodeKind.Wildcard =>
+        traverse(expression.asInstanceOf[Wildcard])
+      case NodeKind.TypeIntersection =>
+        traverse(expression.asInstanceOf[TypeIntersection])
+      case NodeKind.TypeUnion =>
+        traverse(expression.asInstanceOf[TypeUnion])
+      case NodeKind.TypeApply =>
+        traverse(expression.asInstanceOf[TypeApply])
+      case NodeKind.ArrayTypeTree =>
+        traverse(expression.asInstanceOf[ArrayTypeTree])
+      case NodeKind.Ident =>
+        traverse(expression.asInstanceOf[Ident])
+      case NodeKind.FieldAccess =>
+        traverse(expression.asInstanceOf[FieldAccess])
+      case NodeKind.ArrayAccess =>
+        traverse(expression.asInstanceOf[ArrayAccess])
+      case NodeKind.ArrayLength =>
+        traverse(expression.asInstanceOf[ArrayLength])
+      case NodeKind.InstanceOf =>
+        traverse(expression.asInstanceOf[InstanceOf])
+      case NodeKind.TypeCast =>
+        traverse(expression.asInstanceOf[TypeCast])
+      case NodeKind.Binary =>
+        traverse(expression.asInstanceOf[Binary])
+      case NodeKind.Unary =>
+        traverse(expression.asInstanceOf[Unary])
+      case NodeKind.AssignOp =>
+        traverse(expression.asInstanceOf[AssignOp])
+      case NodeKind.Assign =>
+        traverse(expression.asInstanceOf[Assign])
+      case NodeKind.Parens =>
+        traverse(expression.asInstanceOf[Parens])
+      case NodeKind.NewArray =>
+        traverse(expression.asInstanceOf[NewArray])
+      case NodeKind.MethodInv =>
+        traverse(expression.asInstanceOf[MethodInv])
+      case NodeKind.Conditional =>
+        traverse(expression.asInstanceOf[Conditional])
+      case NodeKind.NewClass =>
+        traverse(expression.asInstanceOf[NewClass])
+      case NodeKind.MemberRef =>
+        traverse(expression.asInstanceOf[MemberRef])
+      case NodeKind.Lambda =>
+        traverse(expression.asInstanceOf[Lambda])
+      case NodeKind.BooleanLiteral | NodeKind.CharLiteral |
+           NodeKind.IntLiteral | NodeKind.LongLiteral |
+           NodeKind.FloatLiteral | NodeKind.DoubleLiteral |
+           NodeKind.ClassLiteral | NodeKind.NullLiteral =>
+        traverse(expression.asInstanceOf[Literal])
+      case _ =>
+        expression
     }
   }
 
   def traverse(stmt: Statement): Statement = {
-    stmt match {
-      case stmt: VarDecl         => traverse(stmt)
-      case stmt: ClassDecl       => traverse(stmt)
-      case stmt: Assert          => traverse(stmt)
-      case stmt: Throw           => traverse(stmt)
-      case stmt: Return          => traverse(stmt)
-      case stmt: ExprStatement   => traverse(stmt)
-      case stmt: If              => traverse(stmt)
-      case stmt: Block           => traverse(stmt)
-      case stmt: TryStmt         => traverse(stmt)
-      case stmt: Case            => traverse(stmt)
-      case stmt: Switch          => traverse(stmt)
-      case stmt: Synchronized    => traverse(stmt)
-      case stmt: LabeledStmt     => traverse(stmt)
-      case stmt: EnhancedForLoop => traverse(stmt)
-      case stmt: ForLoop         => traverse(stmt)
-      case stmt: WhileLoop       => traverse(stmt)
-      case stmt: DoWhileLoop     => traverse(stmt)
-      case other                 => other
+    (stmt.nodeKind: @switch) match {
+      case NodeKind.VarDecl =>
+        traverse(stmt.asInstanceOf[VarDecl])
+      case NodeKind.ClassDecl =>
+        traverse(stmt.asInstanceOf[ClassDecl])
+      case NodeKind.Assert =>
+        traverse(stmt.asInstanceOf[Assert])
+      case NodeKind.Throw =>
+        traverse(stmt.asInstanceOf[Throw])
+      case NodeKind.Return =>
+        traverse(stmt.asInstanceOf[Return])
+      case NodeKind.ExprStatement =>
+        traverse(stmt.asInstanceOf[ExprStatement])
+      case NodeKind.If =>
+        traverse(stmt.asInstanceOf[If])
+      case NodeKind.Block =>
+        traverse(stmt.asInstanceOf[Block])
+      case NodeKind.TryStmt =>
+        traverse(stmt.asInstanceOf[TryStmt])
+      case NodeKind.Case =>
+        traverse(stmt.asInstanceOf[Case])
+      case NodeKind.Switch =>
+        traverse(stmt.asInstanceOf[Switch])
+      case NodeKind.Synchronized =>
+        traverse(stmt.asInstanceOf[Synchronized])
+      case NodeKind.LabeledStmt =>
+        traverse(stmt.asInstanceOf[LabeledStmt])
+      case NodeKind.EnhancedForLoop =>
+        traverse(stmt.asInstanceOf[EnhancedForLoop])
+      case NodeKind.ForLoop =>
+        traverse(stmt.asInstanceOf[ForLoop])
+      case NodeKind.WhileLoop =>
+        traverse(stmt.asInstanceOf[WhileLoop])
+      case NodeKind.DoWhileLoop =>
+        traverse(stmt.asInstanceOf[DoWhileLoop])
+      case _ =>
+        stmt
     }
   }
 }
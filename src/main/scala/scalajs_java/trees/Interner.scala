@@ -0,0 +1,82 @@
+package scalajs_java.trees
+
+import java.util.concurrent.ConcurrentHashMap
+
+import com.sun.tools.javac.code.Symbol.{ClassSymbol, MethodSymbol, PackageSymbol, VarSymbol}
+import com.sun.tools.javac.code.{Symbol => JSymbol}
+import com.sun.tools.javac.util.{Name => JName}
+
+/** Shares the `Name`s and `Symbol`s built from javac's names and symbols
+  * (and their strings), so that every reference to a declaration does not
+  * allocate its own copy of the whole owner chain. The passes compare the
+  * symbols by identity, so all the trees of a compilation have to be built
+  * with the same interner, and only with it: every compilation has its own
+  * (see `CompilerPipeline`).
+  *
+  * javac's names and symbols are unique per compilation context, so names
+  * are looked up by identity. A project may be compiled by several
+  * contexts (see `CompilerInterface.compileProjectParallel`), each with
+  * its own symbol for the same declaration, so the symbols of packages,
+  * classes and their members are looked up by their full name (and
+  * signature) instead, and only the locals by identity. Thread-safe (the
+  * units are converted in parallel). */
+class Interner {
+
+  private val names = new ConcurrentHashMap[JName, Name]()
+  private val symbols = new ConcurrentHashMap[AnyRef, Symbol]()
+  private val strings = new ConcurrentHashMap[String, String]()
+
+  def string(str: String): String = {
+    val prev = strings.putIfAbsent(str, str)
+    if (prev == null) str else prev
+  }
+
+  def name(jname: JName): Name = {
+    val cached = names.get(jname)
+    if (cached != null) {
+      cached
+    } else {
+      val name = Name(string(jname.toString))
+      val prev = names.putIfAbsent(jname, name)
+      if (prev == null) name else prev
+    }
+  }
+
+  /** The key of a symbol, the same in all the javac contexts */
+  private def symbolKey(jSymbol: JSymbol): AnyRef = jSymbol match {
+    case pkg: PackageSymbol =>
+      "package " + pkg.fullname
+
+    case cls: ClassSymbol =>
+      "class " + cls.flatname
+
+    case _ => jSymbol.owner match {
+      case owner: ClassSymbol if jSymbol.isInstanceOf[MethodSymbol] =>
+        "method " + owner.flatname + "#" + jSymbol
+
+      case owner: ClassSymbol if jSymbol.isInstanceOf[VarSymbol] =>
+        "field " + owner.flatname + "#" + jSymbol
+
+      case _ =>
+        jSymbol
+    }
+  }
+
+  /** The symbol built by `mk` for `jSymbol`, built only once.
+    * `null` results are not cached. */
+  def symbol(jSymbol: JSymbol)(mk: => Symbol): Symbol = {
+    val key = symbolKey(jSymbol)
+    val cached = symbols.get(key)
+    if (cached != null) {
+      cached
+    } else {
+      val symbol = mk
+      if (symbol == null) {
+        null
+      } else {
+        val prev = symbols.putIfAbsent(key, symbol)
+        if (prev == null) symbol else prev
+      }
+    }
+  }
+}
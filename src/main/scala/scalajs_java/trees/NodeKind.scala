@@ -0,0 +1,84 @@
+package scalajs_java.trees
+
+/** Kinds of the trees (`TreeNode.nodeKind`), one per tree class.
+  *
+  * These are constants, so a `match` on them annotated with `@switch`
+  * compiles to a single `tableswitch`. When adding a tree class, add its
+  * kind here and a case to every dispatcher (`Traverse`, `Compiler`). */
+object NodeKind {
+  final val CompilationUnit = 0
+  final val Import = 1
+  final val Modifiers = 2
+  final val MethodDecl = 3
+  final val TypeParam = 4
+  final val CatchTree = 5
+  final val EmptyTree = 6
+  final val LetExpr = 7
+  final val Annotation = 8
+  final val AnnotatedType = 9
+  final val Wildcard = 10
+  final val TypeIntersection = 11
+  final val TypeUnion = 12
+  final val TypeApply = 13
+  final val ArrayTypeTree = 14
+  final val PrimitiveTypeTree = 15
+  final val AnyTypeTree = 16
+  final val BooleanLiteral = 17
+  final val CharLiteral = 18
+  final val IntLiteral = 19
+  final val LongLiteral = 20
+  final val FloatLiteral = 21
+  final val DoubleLiteral = 22
+  final val ClassLiteral = 23
+  final val NullLiteral = 24
+  final val Ident = 25
+  final val FieldAccess = 26
+  final val ArrayAccess = 27
+  final val ArrayLength = 28
+  final val InstanceOf = 29
+  final val TypeCast = 30
+  final val Binary = 31
+  final val Unary = 32
+  final val AssignOp = 33
+  final val Assign = 34
+  final val Parens = 35
+  final val NewArray = 36
+  final val MethodInv = 37
+  final val Conditional = 38
+  final val NewClass = 39
+  final val MemberRef = 40
+  final val Lambda = 41
+  final val VarDecl = 42
+  final val ClassDecl = 43
+  final val Assert = 44
+  final val Throw = 45
+  final val Return = 46
+  final val Continue = 47
+  final val Break = 48
+  final val ExprStatement = 49
+  final val If = 50
+  final val Block = 51
+  final val TryStmt = 52
+  final val Skip = 53
+  final val Case = 54
+  final val Switch = 55
+  final val Synchronized = 56
+  final val LabeledStmt = 57
+  final val EnhancedForLoop = 58
+  final val ForLoop = 59
+  final val WhileLoop = 60
+  final val DoWhileLoop = 61
+  final val ErrorTree = 62
+
+  // the kinds of `Expr`s and `Statement`s are contiguous (`ErrorTree`,
+  // which is both, is in neither range)
+
+  @inline def isExpr(kind: Int): Boolean =
+    kind >= LetExpr && kind <= Lambda
+
+  @inline def isStatement(kind: Int): Boolean =
+    kind >= VarDecl && kind <= DoWhileLoop
+
+  /** Number of kinds */
+  final val Count = 63
+}
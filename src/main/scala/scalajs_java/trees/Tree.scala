@@ -1,10 +1,11 @@
 package scalajs_java.trees
 
+import java.net.URI
 import javax.lang.model.`type`.TypeKind
 import javax.lang.model.element.Modifier
 
 import com.sun.tools.javac.code.Symbol.{ClassSymbol, MethodSymbol, VarSymbol}
-import com.sun.tools.javac.code.{TypeTag, Symbol => JSymbol}
+import com.sun.tools.javac.code.{Flags, TypeTag, Symbol => JSymbol}
 import com.sun.tools.javac.tree.JCTree.Tag
 import com.sun.tools.javac.util.{Name => JName}
 
@@ -14,65 +15,80 @@ import scalajs_java.utils.scope.{MethodElem, ScopeElem}
 
 // Tree
 
-sealed trait Tree {
+/** Base class of all the trees, holding their `NodeKind`. Traversals
+  * dispatch on it with a `switch` instead of a chain of type tests. */
+sealed abstract class TreeNode(final val nodeKind: Int)
+
+sealed trait Tree extends TreeNode {
   implicit val pos: Position
 }
 
-case class CompilationUnit(imports: List[Import], typeDecls: List[Tree])(
-    implicit val pos: Position) extends Tree
+/** `sourceFile` is the file all the trees of the unit come from */
+case class CompilationUnit(imports: List[Import], typeDecls: List[Tree],
+    sourceFile: Option[URI])(
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.CompilationUnit) with Tree
 
 case class Import(qualifiedIdent: Tree)(
-    implicit val pos: Position) extends Tree
+    implicit val pos: Position) extends TreeNode(NodeKind.Import) with Tree
 
 case class Modifiers(flags: Set[Modifier], annotations: List[Annotation])(
-    implicit val pos: Position) extends Tree
+    implicit val pos: Position) extends TreeNode(NodeKind.Modifiers) with Tree
 
 case class MethodDecl(name: Name, symbol: Symbol, modifiers: Modifiers,
     typeParams: List[TypeParam], recvParam: Option[VarDecl],
     params: List[VarDecl], thrown: List[Expr], retType: Option[Tree],
-    body: Tree, defVal: Option[Expr])(implicit val pos: Position) extends Tree
+    body: Tree, defVal: Option[Expr])(implicit val pos: Position)
+    extends TreeNode(NodeKind.MethodDecl) with Tree
 
 case class TypeParam(name: Name, bounds: List[Expr],
-    annotations: List[Annotation])(implicit val pos: Position) extends Tree
+    annotations: List[Annotation])(implicit val pos: Position)
+    extends TreeNode(NodeKind.TypeParam) with Tree
 
 case class CatchTree(param: VarDecl, body: Block)(
-    implicit val pos: Position) extends Tree
+    implicit val pos: Position) extends TreeNode(NodeKind.CatchTree) with Tree
 
-case class EmptyTree()(implicit val pos: Position) extends Tree
+case class EmptyTree()(implicit val pos: Position)
+    extends TreeNode(NodeKind.EmptyTree) with Tree
 
 // Expressions
 
 sealed trait Expr extends Tree with ExpressionTree
 
 case class LetExpr(defs: List[VarDecl], expr: Tree, tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.LetExpr) with Expr
 
 // TODO attribute: Compound
 case class Annotation(annotationType: Tree, args: List[Expr], tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.Annotation) with Expr
 
 case class AnnotatedType(annotations: List[Annotation], underlyingType: Expr,
-    tp: Type)(implicit val pos: Position) extends Expr
+    tp: Type)(implicit val pos: Position)
+    extends TreeNode(NodeKind.AnnotatedType) with Expr
 
 case class Wildcard(bound: Tree, tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.Wildcard) with Expr
 
 case class TypeIntersection(bounds: List[Expr], tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.TypeIntersection) with Expr
 
 case class TypeUnion(alternatives: List[Expr], tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.TypeUnion) with Expr
 
 case class TypeApply(tpe: Tree, typeArgs: List[Expr], tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.TypeApply) with Expr
 
 case class ArrayTypeTree(elemType: Tree, tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.ArrayTypeTree) with Expr
 
 case class PrimitiveTypeTree(typeKind: TypeKind, typeTag: TypeTag, tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.PrimitiveTypeTree) with Expr
 
-case class AnyTypeTree()(implicit val pos: Position) extends Expr {
+case class AnyTypeTree()(implicit val pos: Position)
+    extends TreeNode(NodeKind.AnyTypeTree) with Expr {
   override def tp: Type = AnyType
 }
 
@@ -81,66 +97,78 @@ case class AnyTypeTree()(implicit val pos: Position) extends Expr {
 sealed trait Literal extends Expr
 
 case class BooleanLiteral(value: Boolean, tp: Type)(
-    implicit val pos: Position) extends Literal
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.BooleanLiteral) with Literal
 
 case class CharLiteral(value: Char, tp: Type)(
-    implicit val pos: Position) extends Literal
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.CharLiteral) with Literal
 
 case class IntLiteral(value: Int, tp: Type)(
-    implicit val pos: Position) extends Literal
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.IntLiteral) with Literal
 
 case class LongLiteral(value: Long, tp: Type)(
-    implicit val pos: Position) extends Literal
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.LongLiteral) with Literal
 
 case class FloatLiteral(value: Float, tp: Type)(
-    implicit val pos: Position) extends Literal
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.FloatLiteral) with Literal
 
 case class DoubleLiteral(value: Double, tp: Type)(
-    implicit val pos: Position) extends Literal
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.DoubleLiteral) with Literal
 
 case class ClassLiteral(value: Any, tp: Type)(
-    implicit val pos: Position) extends Literal
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.ClassLiteral) with Literal
 
 case class NullLiteral()(
-    implicit val pos: Position) extends Literal {
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.NullLiteral) with Literal {
   val tp: Type = NullType
 }
 
 case class Ident(symbol: Symbol, name: Name, tp: Type,
     refVar: Option[ScopeElem]=None, enclClass: Option[String]=None)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.Ident) with Expr
 
 case class FieldAccess(name: Name, symbol: Symbol, selected: Expr, tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.FieldAccess) with Expr
 
 case class ArrayAccess(indexed: Expr, index: Expr, tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.ArrayAccess) with Expr
+
+/** `array.length` */
+case class ArrayLength(array: Expr, tp: Type)(
+    implicit val pos: Position) extends TreeNode(NodeKind.ArrayLength) with Expr
 
 case class InstanceOf(clazz: Tree, expr: Expr, tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.InstanceOf) with Expr
 
 case class TypeCast(clazz: Tree, expr: Expr, tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.TypeCast) with Expr
 
 case class Binary(op: Tag, left: Expr, right: Expr, tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.Binary) with Expr
 
 case class Unary(op: Tag, arg: Expr, tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.Unary) with Expr
 
 case class AssignOp(variable: Expr, op: Tag, expr: Expr, tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.AssignOp) with Expr
 
 case class Assign(variable: Expr, expr: Expr, tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.Assign) with Expr
 
 case class Parens(expr: Expr, tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.Parens) with Expr
 
 case class NewArray(annotations: List[Annotation],
     dimAnnotations: List[List[Annotation]], dimensions: List[Expr],
     initializers: List[Expr], elemType: Option[Expr], tp: Type)(
-    implicit val pos: Position) extends Expr
+    implicit val pos: Position) extends TreeNode(NodeKind.NewArray) with Expr
 
 
 // Poly expressions
@@ -148,15 +176,19 @@ case class NewArray(annotations: List[Annotation],
 sealed trait PolyExpr extends Expr
 
 case class MethodInv(methodSel: Expr, typeArgs: List[Expr], args: List[Expr],
-    tp: Type, refDecl: Option[MethodElem]=None)(
-    implicit val pos: Position) extends PolyExpr
+    tp: Type, refDecl: Option[MethodElem]=None, methodSym: Option[Symbol]=None)(
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.MethodInv) with PolyExpr
 
 case class Conditional(cond: Expr, trueExpr: Expr, falseExpr: Expr, tp: Type)(
-    implicit val pos: Position) extends PolyExpr
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.Conditional) with PolyExpr
 
 case class NewClass(ident: Expr, typeArgs: List[Expr], args: List[Expr],
-    classBody: Option[ClassDecl], enclExpr: Option[Expr], tp: Type)(
-    implicit val pos: Position) extends PolyExpr
+    classBody: Option[ClassDecl], enclExpr: Option[Expr], tp: Type,
+    ctorSym: Option[Symbol]=None)(
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.NewClass) with PolyExpr
 
 // Functional expressions
 
@@ -164,10 +196,12 @@ sealed trait FuncExpr extends PolyExpr
 
 case class MemberRef(name: Name, typeArgs: List[Expr], qualExpr: Expr,
     mode: ReferenceMode, polyKind: PolyKind, tp: Type)(
-    implicit val pos: Position) extends FuncExpr
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.MemberRef) with FuncExpr
 
 case class Lambda(params: List[VarDecl], body: Tree, bodyKind: BodyKind,
-    tp: Type)(implicit val pos: Position) extends FuncExpr
+    tp: Type)(implicit val pos: Position)
+    extends TreeNode(NodeKind.Lambda) with FuncExpr
 
 
 // Statements
@@ -177,74 +211,90 @@ sealed trait Statement extends Tree with StatementTree
 // TODO sym: Symbol.VarSymbol
 case class VarDecl(mods: Modifiers, name: Name, nameExpr: Option[Expr],
     symbol: Symbol, varType: Tree, init: Option[Expr], kind: VarKind)(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.VarDecl) with Statement
 
 case class ClassDecl(name: Name, symbol: Symbol, typeParams: List[TypeParam],
     extendsCl: Option[Expr], implementsCl: List[Expr], members: List[Tree])(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.ClassDecl) with Statement
 
 case class Assert(cond: Expr, detail: Expr)(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position) extends TreeNode(NodeKind.Assert) with Statement
 
-case class Throw(expr: Expr)(implicit val pos: Position) extends Statement
+case class Throw(expr: Expr)(implicit val pos: Position)
+    extends TreeNode(NodeKind.Throw) with Statement
 
-case class Return(expr: Option[Expr])(implicit val pos: Position) extends Statement
+case class Return(expr: Option[Expr])(implicit val pos: Position)
+    extends TreeNode(NodeKind.Return) with Statement
 
 case class Continue(label: Option[Name])(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.Continue) with Statement
 
 case class Break(label: Option[Name])(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position) extends TreeNode(NodeKind.Break) with Statement
 
 case class ExprStatement(expr: Expr)(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.ExprStatement) with Statement
 
 case class If(cond: Expr, thenStmt: Statement, elseStmt: Option[Statement])(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position) extends TreeNode(NodeKind.If) with Statement
 
 case class Block(statements: List[Statement], isStatic: Boolean)(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position) extends TreeNode(NodeKind.Block) with Statement
 
 case class TryStmt(resources: List[Tree], body: Block,
     catches: List[CatchTree], finallyBlk: Option[Block])(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.TryStmt) with Statement
 
-case class Skip(implicit val pos: Position) extends Statement
+case class Skip(implicit val pos: Position)
+    extends TreeNode(NodeKind.Skip) with Statement
 
-case class Case(pat: Expr, statements: List[Statement])(
-    implicit val pos: Position) extends Statement
+/** `pat` is `None` for the `default` case */
+case class Case(pat: Option[Expr], statements: List[Statement])(
+    implicit val pos: Position) extends TreeNode(NodeKind.Case) with Statement
 
 case class Switch(selector: Expr, cases: List[Case])(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position) extends TreeNode(NodeKind.Switch) with Statement
 
 case class Synchronized(lock: Expr, body: Block)(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.Synchronized) with Statement
 
 case class LabeledStmt(label: Name, body: Statement)(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.LabeledStmt) with Statement
 
 case class EnhancedForLoop(variable: VarDecl, expr: Expr, body: Statement)(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.EnhancedForLoop) with Statement
 
 case class ForLoop(init: List[Statement], cond: Option[Expr],
     update: List[ExprStatement], body: Statement)(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.ForLoop) with Statement
 
 case class WhileLoop(cond: Expr, body: Statement)(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.WhileLoop) with Statement
 
 case class DoWhileLoop(cond: Expr, body: Statement)(
-    implicit val pos: Position) extends Statement
+    implicit val pos: Position)
+    extends TreeNode(NodeKind.DoWhileLoop) with Statement
 
 
 // Other
 
-case class ErrorTree(pos: Position) extends Tree with Expr with Statement
+case class ErrorTree(pos: Position)
+    extends TreeNode(NodeKind.ErrorTree) with Tree with Expr with Statement
 
 case class Name(str: String)
 
 case object Name {
-  def fromJName(jname: JName) = Name(jname.toString)
+  def fromJName(jname: JName, interner: Interner): Name = interner.name(jname)
 
   implicit def nameToString(name: Name): String =
     name.str
@@ -256,7 +306,9 @@ case class Symbol(name: String,
              isLocal: Boolean=false,
              isStatic: Boolean=false,
              isConstructor: Boolean=false,
-             isInterface: Boolean=false) {
+             isInterface: Boolean=false,
+             isFinal: Boolean=false,
+             isAbstract: Boolean=false) {
 
   def flatName(): String = name
 
@@ -266,22 +318,48 @@ case class Symbol(name: String,
 
 object Symbol {
 
-  def fromJava(jSymbol: JSymbol): Symbol = {
-    if (jSymbol == null || jSymbol.toString == "") {
+  /** The name of the `Symbol` of a javac symbol (the full name of a class,
+    * the name without the signature of a method) */
+  def javaName(jSymbol: JSymbol): String =
+    jSymbol.baseSymbol().toString.takeWhile(c => c != '(' && c != '<')
+
+  def fromJava(jSymbol: JSymbol, interner: Interner): Symbol = {
+    if (jSymbol == null) {
       null
     } else {
-      val owner = Symbol.fromJava(jSymbol.owner)
-      val nameStr = jSymbol.baseSymbol().toString.takeWhile(c => c != '(' && c != '<')
-
-      new Symbol(nameStr, owner, jSymbol.isPrivate, jSymbol.isLocal,
-        jSymbol.isStatic, jSymbol.isConstructor, jSymbol.isInterface)
+      interner.symbol(jSymbol) {
+        if (jSymbol.toString == "") {
+          null
+        } else {
+          val owner = Symbol.fromJava(jSymbol.owner, interner)
+          val nameStr = interner.string(javaName(jSymbol))
+
+          val flags = jSymbol.flags()
+
+          new Symbol(nameStr, owner, jSymbol.isPrivate, jSymbol.isLocal,
+            jSymbol.isStatic, jSymbol.isConstructor, jSymbol.isInterface,
+            (flags & Flags.FINAL) != 0, (flags & Flags.ABSTRACT) != 0)
+        }
+      }
     }
   }
 }
 
-case class Position(line: Int)
-case object Position {
-  def noPosition = Position(0)
+/** Source position of a tree: a line and a column, packed into a single
+  * `Long` (32 and 16 bits). The file is the one of the compilation unit
+  * of the tree (`CompilationUnit.sourceFile`). Lines and columns start
+  * at 1, 0 means unknown. */
+case class Position(bits: Long) extends AnyVal {
+  def line: Int = ((bits >>> 16) & 0xFFFFFFFFL).toInt
+
+  def column: Int = (bits & 0xFFFFL).toInt
+}
+
+object Position {
+  def noPosition = Position(0L)
+
+  def apply(line: Int, column: Int): Position =
+    Position(((line & 0xFFFFFFFFL) << 16) | (column.toLong max 0L min 0xFFFFL))
 }
 
 sealed trait PolyKind
@@ -1,12 +1,14 @@
 package scalajs_java.utils
 
-import scala.collection.mutable.{MutableList => MList}
+import org.scalajs.core.ir.Position
+
+import scalajs_java.DiagnosticSink
 
 /* Errors thrown by the compiler
  * We would like to fail as late as possible, giving
  * the user as many errors as we can spot.
  * Thus, instead of throwing an exception the moment we
- * see an error, we append it to an error list and
+ * see an error, we report it (to a `DiagnosticSink`) and
  * fail later.
  */
 
@@ -24,6 +26,14 @@ case object Fatal extends Severity {
   override def toString: String = "ERROR (fatal)"
 }
 
+object Severity {
+  def toSink(severity: Severity): DiagnosticSink.Severity = severity match {
+    case Warning => DiagnosticSink.Severity.WARNING
+    case Normal  => DiagnosticSink.Severity.ERROR
+    case Fatal   => DiagnosticSink.Severity.FATAL
+  }
+}
+
 case class CompilerPhase(stage: String) {
   override def toString: String = stage + " phase"
 }
@@ -35,6 +45,10 @@ trait Error {
   val severity: Severity
 
   def formatError(phase: CompilerPhase): String
+
+  def toRecord(phase: CompilerPhase): DiagnosticSink.Record =
+    new DiagnosticSink.Record(phase.toString, Severity.toSink(severity),
+      line, 0, methodName.orNull, message)
 }
 
 class CompilerError(val line: Int,
@@ -59,34 +73,41 @@ object CompilerError {
   }
 }
 
-class ErrorHandler(private val phase: CompilerPhase) {
+/** Thrown when a phase of the compilation failed
+  * (the errors themselves have already been reported). */
+class CompilationFailed(val phase: CompilerPhase, val errorCount: Int)
+    extends Exception(s"$errorCount error(s) during $phase")
 
-  private val errors = MList.empty[Error]
+class ErrorHandler(private val phase: CompilerPhase,
+                   private val sink: DiagnosticSink = DiagnosticSink.global()) {
 
-  private def reportAndFail(): Unit = {
-    val errorMsg = errors.map(_.formatError(phase)).mkString(
-      "Errors encountered during compilation:\n\n",
-      "\n\n",
-      "Terminating.")
+  private var errorCount = 0
 
-    println(errorMsg)
-    System.exit(1)
-  }
+  private def reportAndFail(): Unit =
+    throw new CompilationFailed(phase, errorCount)
 
   def fail(line: Int, methodName: Option[String], message: String,
            severity: Severity): Unit =
     this.fail(CompilerError(line, methodName, message, severity))
 
+  /** Reports an error at an IR position (IR lines start at 0, the
+    * reported ones at 1, 0 means unknown) */
+  def fail(pos: Position, methodName: Option[String], message: String,
+           severity: Severity): Unit =
+    this.fail(if (pos.isDefined) pos.line + 1 else 0, methodName, message,
+      severity)
+
   def fail(error: Error): Unit = {
-    errors += error
+    sink.report(error.toRecord(phase))
     error.severity match {
-      case Fatal => reportAndFail()
-      case _     => ()
+      case Warning => ()
+      case Normal  => errorCount += 1
+      case Fatal   => errorCount += 1; reportAndFail()
     }
   }
 
   def reportErrors(): Unit = {
-    if (errors.nonEmpty) reportAndFail()
+    if (errorCount > 0) reportAndFail()
   }
 
 }
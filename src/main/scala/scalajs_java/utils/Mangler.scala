@@ -11,6 +11,7 @@ package scalajs_java.utils
  * @author  Sébastien Doeraene
  */
 
+import java.util.concurrent.ConcurrentHashMap
 import javax.lang.model.`type`.TypeKind
 
 import com.sun.tools.javac.code.{TypeTag, Type => JType}
@@ -18,14 +19,13 @@ import org.scalajs.core.ir.{Definitions, Position, Trees => irt, Types => irtpe}
 
 import scala.collection.mutable.{Map => MMap, Set => MSet}
 import scalajs_java.trees._
+import scalajs_java.utils.scope.SymbolKey
 
 /*
  * Name mangling
  */
 class Mangler {
 
-//  private val usedLocalNames: MSet[String] = MSet.empty[String]
-
   /** Outer separator string (between parameter types) */
   final val OuterSep = "__"
 
@@ -40,31 +40,77 @@ class Mangler {
 
   // Fresh local name generator ----------------------------------------------
 
-  private val usedLocalNames = MSet.empty[String]
-  private val localSymbolNames = MMap.empty[Symbol, String]
+  /** The local names of one method (or of the code outside of methods):
+    * the names in use, the next suffix to try for every base name and the
+    * names already given to local symbols. */
+  private class NameScope {
+    val usedNames = MSet.empty[String]
+    val nextSuffix = MMap.empty[String, Int]
+    val symbolNames = new java.util.IdentityHashMap[Symbol, String]()
+  }
+
+  /** The name scopes, by owner (method) symbol. The local symbols are
+    * shared (see `Interner`), so they are compared by identity. */
+  private val nameScopes = new java.util.IdentityHashMap[Symbol, NameScope]()
+  private val topLevelScope = new NameScope
+
+  private def nameScope(owner: Symbol): NameScope = {
+    if (owner == null) {
+      topLevelScope
+    } else {
+      val scope = nameScopes.get(owner)
+      if (scope != null) {
+        scope
+      } else {
+        val newScope = new NameScope
+        nameScopes.put(owner, newScope)
+        newScope
+      }
+    }
+  }
+
   private val isReserved =
     Set("arguments", "eval", ScalaJSEnvironmentName)
 
-  private def freshName(base: String = "x"): String = {
-    var suffix = 1
-    var longName = base
-    while (usedLocalNames(longName) || isReserved(longName)) {
+  /** `base`, or `base$N` with the smallest N not used yet. Starts where
+    * the previous call for the same base stopped, so generating many
+    * names with the same base does not probe all the earlier ones. */
+  private def freshName(base: String = "x",
+      scope: NameScope = topLevelScope): String = {
+    var suffix = scope.nextSuffix.getOrElse(base, 1)
+    var longName = if (suffix == 1) base else base + "$" + suffix
+    while (scope.usedNames(longName) || isReserved(longName)) {
       suffix += 1
-      longName = base+"$"+suffix
+      longName = base + "$" + suffix
     }
-    usedLocalNames += longName
-    val mangled = mangleJSName(longName)
-    mangled
+    scope.usedNames += longName
+    scope.nextSuffix(base) = suffix + 1
+    mangleJSName(longName)
   }
 
   def freshLocalIdent()(implicit pos: Position): irt.Ident =
     irt.Ident(freshName(), None)
 
-  def freshLocalIdent(base: String)(implicit pos: Position): irt.Ident =
-    irt.Ident(freshName(base), Some(base))
-
-  private def localSymbolName(sym: Symbol): String =
-    localSymbolNames.getOrElseUpdate(sym, freshName(sym.name.toString))
+  /** A fresh local name in the method `owner` (`null` outside of
+    * methods), which cannot clash with the names of its locals */
+  def freshLocalIdent(base: String, owner: Symbol)(
+      implicit pos: Position): irt.Ident =
+    irt.Ident(freshName(base, nameScope(owner)), Some(base))
+
+  /** The name of a local symbol, unique in its method. Computed once per
+    * symbol: the tagging passes and the compiler share the mangler of
+    * their unit, so they agree on the names. */
+  private def localSymbolName(sym: Symbol): String = {
+    val scope = nameScope(sym.owner)
+    val cached = scope.symbolNames.get(sym)
+    if (cached != null) {
+      cached
+    } else {
+      val name = freshName(sym.name.toString, scope)
+      scope.symbolNames.put(sym, name)
+      name
+    }
+  }
 
 //  def encodeLabelSym(sym: Symbol)(implicit pos: Position): irt.Ident = {
 //    require(sym.isLabel, "encodeLabelSym called with non-label symbol: " + sym)
@@ -74,7 +120,11 @@ class Mangler {
   // TODO
   private lazy val allRefClasses: Set[Symbol] = Set.empty[Symbol]
 
-  def encodeFieldSym(sym: Symbol)(implicit pos: Position): irt.Ident = {
+  def encodeFieldSym(sym: Symbol)(implicit pos: Position): irt.Ident =
+    irt.Ident(Mangler.cached(Mangler.fieldNames, sym)(encodeFieldName(sym)),
+      Some(sym.flatName()))
+
+  private def encodeFieldName(sym: Symbol): String = {
     val name0 = encodeMemberNameInternal(sym)
     val name =
       if (name0.charAt(name0.length()-1) != ' ') name0
@@ -93,19 +143,30 @@ class Mangler {
         "f"
 
     val encodedName = name + "$" + idSuffix
-    irt.Ident(mangleJSName(encodedName), Some(sym.flatName()))
+    mangleJSName(encodedName)
   }
 
   def encodeMethod(mDecl: MethodDecl, reflProxy: Boolean = false)
       (implicit pos: Position): irt.Ident = {
-    val (encodedName, paramsString) = encodeMethodNameInternal(mDecl, reflProxy)
-    irt.Ident(encodedName + paramsString,
-      Some(mDecl.symbol.flatName().toString + paramsString))
+    val (encodedName, originalName) = encodeMethodCached(mDecl, reflProxy)
+    irt.Ident(encodedName, Some(originalName))
   }
 
-  def encodeMethodName(mDecl: MethodDecl, reflProxy: Boolean = false): String = {
-    val (encodedName, paramsString) = encodeMethodNameInternal(mDecl, reflProxy)
-    encodedName + paramsString
+  def encodeMethodName(mDecl: MethodDecl, reflProxy: Boolean = false): String =
+    encodeMethodCached(mDecl, reflProxy)._1
+
+  /** The encoded and the original name of a method (with the parameter
+    * types), computed once per method symbol */
+  private def encodeMethodCached(mDecl: MethodDecl,
+      reflProxy: Boolean): (String, String) = {
+    def encode(): (String, String) = {
+      val (encodedName, paramsString) = encodeMethodNameInternal(mDecl, reflProxy)
+      (encodedName + paramsString,
+        mDecl.symbol.flatName().toString + paramsString)
+    }
+
+    if (reflProxy) encode()
+    else Mangler.cached(Mangler.methodNames, mDecl.symbol)(encode())
   }
 
   private def encodeMethodNameInternal(mDecl: MethodDecl,
@@ -162,10 +223,23 @@ class Mangler {
     irt.Ident(encodeClassFullName(sym), Some(sym.flatName()))
   }
 
-  def encodeClassFullName(sym: Symbol): String = {
-    Definitions.encodeClassName(
-      eraseTypeString(sym.flatName()) +
-          (if (needsModuleClassSuffix(sym)) "$" else ""))
+  def encodeClassFullName(sym: Symbol): String =
+    encodeClassName(sym.flatName() +
+        (if (needsModuleClassSuffix(sym)) "$" else ""))
+
+  /** The encoded name of the class with the given full name */
+  def encodeClassName(name: String): String = {
+    val fullName = eraseTypeString(name)
+    // the symbols of types may be copies (see `DesugarTraverse`), so the
+    // class names are cached by name, not by symbol
+    val cached = Mangler.classNames.get(fullName)
+    if (cached != null) {
+      cached
+    } else {
+      val encoded = Definitions.encodeClassName(fullName)
+      Mangler.classNames.putIfAbsent(fullName, encoded)
+      encoded
+    }
   }
 
   def encodeParamIdent(sym: Symbol)(implicit pos: Position): irt.Ident = {
@@ -237,10 +311,10 @@ class Mangler {
 
   // TODO
   private def mangleObjectType(jtype: JType): String = {
-    val tsym = Symbol.fromJava(jtype.tsym)
+    val name = Symbol.javaName(jtype.tsym)
     if (jtype.getTag == TypeTag.ARRAY) "A" + mangleJType(jtype.allparams().head)
-    else if (tsym.name == "java.lang.String")  "T"
-    else encodeClassFullName(tsym)
+    else if (name == "java.lang.String")  "T"
+    else encodeClassName(name)
   }
 
   private def mangleJType(jtype: JType): String =
@@ -308,3 +382,37 @@ class Mangler {
   }
 
 }
+
+object Mangler {
+
+  // Encoded member and class names, shared by all the manglers of a run
+  // (the units may be compiled in parallel). The member names are keyed
+  // by the identity of their symbols: overloads have equal symbols.
+  private val fieldNames = new ConcurrentHashMap[SymbolKey, String]()
+  private val methodNames = new ConcurrentHashMap[SymbolKey, (String, String)]()
+  private val classNames = new ConcurrentHashMap[String, String]()
+
+  private def cached[T](cache: ConcurrentHashMap[SymbolKey, T],
+      sym: Symbol)(compute: => T): T = {
+    if (sym == null) {
+      compute
+    } else {
+      val key = new SymbolKey(sym)
+      val value = cache.get(key)
+      if (value != null) {
+        value
+      } else {
+        val computed = compute
+        val prev = cache.putIfAbsent(key, computed)
+        if (prev == null) computed else prev
+      }
+    }
+  }
+
+  /** Called at the start of every compilation */
+  def reset(): Unit = {
+    fieldNames.clear()
+    methodNames.clear()
+    classNames.clear()
+  }
+}
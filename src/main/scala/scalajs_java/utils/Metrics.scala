@@ -0,0 +1,165 @@
+package scalajs_java.utils
+
+import java.io.PrintWriter
+import java.lang.management.ManagementFactory
+import java.util.concurrent.ConcurrentLinkedQueue
+
+import com.sun.tools.javac.tree.JCTree.JCCompilationUnit
+import org.scalajs.core.ir.{Trees => irt}
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable.{LinkedHashMap => MLinkedHashMap}
+import scalajs_java.runtime.Config
+import scalajs_java.trees.{ClassDecl, CompilationUnit, Tree}
+
+/** Compilation metrics: wall time, allocated bytes and tree sizes of every
+  * pass (per compilation unit), of javac and of the linker.
+  *
+  * Enabled with `-Dscalajs_java.metrics=<report file>`: the samples are
+  * then written there as JSON and a summary table is printed. When
+  * disabled, `measure` only evaluates its body. */
+object Metrics {
+
+  case class Sample(phase: String, unit: String, wallNanos: Long,
+                    allocatedBytes: Long, nodesIn: Int, nodesOut: Int)
+
+  case class PhaseSummary(phase: String, count: Int, wallNanos: Long,
+                          allocatedBytes: Long, nodesIn: Long, nodesOut: Long)
+
+  private val samples = new ConcurrentLinkedQueue[Sample]()
+
+  private val threadBean = ManagementFactory.getThreadMXBean
+
+  def enabled: Boolean = Config.metricsReport.isDefined
+
+  /** Bytes allocated so far by the current thread (0 if not supported) */
+  def allocatedBytes(): Long = threadBean match {
+    case bean: com.sun.management.ThreadMXBean if bean.isThreadAllocatedMemorySupported =>
+      bean.getThreadAllocatedBytes(Thread.currentThread.getId)
+
+    case _ =>
+      0L
+  }
+
+  /** Counts the nodes of our trees and of the IR trees (other values,
+    * like javac trees, count as 0) */
+  def countNodes(tree: Any): Int = tree match {
+    case t: Tree with Product     => 1 + t.productIterator.map(countNodes).sum
+    case t: irt.Tree with Product => 1 + t.productIterator.map(countNodes).sum
+    case o: Option[_]             => o.map(countNodes).getOrElse(0)
+    case it: Iterable[_]          => it.iterator.map(countNodes).sum
+    case (a, b)                   => countNodes(a) + countNodes(b)
+    case _                        => 0
+  }
+
+  /** A name identifying the compilation unit a tree comes from */
+  def unitName(tree: Any): String = tree match {
+    case cu: CompilationUnit =>
+      cu.typeDecls.collectFirst { case cd: ClassDecl => cd.name.str }
+          .getOrElse("<unit>")
+
+    case cd: irt.ClassDef =>
+      cd.name.name
+
+    case cu: JCCompilationUnit if cu.sourcefile != null =>
+      cu.sourcefile.getName
+
+    case _ =>
+      "<unknown>"
+  }
+
+  def record(sample: Sample): Unit =
+    samples.add(sample)
+
+  /** Called from the Java side (`CompilerInterface`) */
+  def record(phase: String, unit: String, wallNanos: Long,
+             allocatedBytes: Long): Unit =
+    record(Sample(phase, unit, wallNanos, allocatedBytes, 0, 0))
+
+  def measure[A](phase: String, unit: String)(body: => A): A =
+    measure(phase, unit, None)(body)
+
+  /** Measures a pass: `input` is the tree it was given */
+  def measurePass[A](phase: String, input: Any)(body: => A): A =
+    measure(phase, unitName(input), Some(input))(body)
+
+  private def measure[A](phase: String, unit: String, input: Option[Any])(
+      body: => A): A = {
+    if (!enabled) return body
+
+    val startBytes = allocatedBytes()
+    val start = System.nanoTime()
+    val result = body
+    val wall = System.nanoTime() - start
+    val allocated = allocatedBytes() - startBytes
+
+    record(Sample(phase, unit, wall, allocated,
+      input.map(countNodes).getOrElse(0),
+      if (input.isDefined) countNodes(result) else 0))
+    result
+  }
+
+  def reset(): Unit =
+    samples.clear()
+
+  def allSamples: List[Sample] = samples.toList
+
+  /** Totals per phase, in the order the phases first appeared */
+  def summary: List[PhaseSummary] = {
+    val phases = MLinkedHashMap.empty[String, PhaseSummary]
+    for (s <- allSamples) {
+      val acc = phases.getOrElse(s.phase, PhaseSummary(s.phase, 0, 0, 0, 0, 0))
+      phases(s.phase) = PhaseSummary(s.phase, acc.count + 1,
+        acc.wallNanos + s.wallNanos, acc.allocatedBytes + s.allocatedBytes,
+        acc.nodesIn + s.nodesIn, acc.nodesOut + s.nodesOut)
+    }
+    phases.values.toList
+  }
+
+  def summaryTable: String = {
+    val header = "%-45s %6s %10s %10s %10s %10s".format(
+      "phase", "runs", "time [ms]", "alloc [MB]", "nodes in", "nodes out")
+    val rows = summary.map { p =>
+      "%-45s %6d %10.1f %10.1f %10d %10d".format(p.phase, p.count,
+        p.wallNanos / 1e6, p.allocatedBytes / (1024.0 * 1024.0),
+        p.nodesIn, p.nodesOut)
+    }
+    (header :: rows).mkString("\n")
+  }
+
+  private def jsonString(str: String): String = {
+    val sb = new StringBuilder("\"")
+    str.foreach {
+      case '"'          => sb ++= "\\\""
+      case '\\'         => sb ++= "\\\\"
+      case c if c < ' ' => sb ++= "\\u%04x".format(c.toInt)
+      case c            => sb += c
+    }
+    (sb += '"').toString
+  }
+
+  def toJson: String = {
+    def sampleJson(s: Sample): String =
+      s"""{"phase": ${jsonString(s.phase)}, "unit": ${jsonString(s.unit)}, """ +
+      s""""wallNanos": ${s.wallNanos}, "allocatedBytes": ${s.allocatedBytes}, """ +
+      s""""nodesIn": ${s.nodesIn}, "nodesOut": ${s.nodesOut}}"""
+
+    def phaseJson(p: PhaseSummary): String =
+      s"""{"phase": ${jsonString(p.phase)}, "runs": ${p.count}, """ +
+      s""""wallNanos": ${p.wallNanos}, "allocatedBytes": ${p.allocatedBytes}, """ +
+      s""""nodesIn": ${p.nodesIn}, "nodesOut": ${p.nodesOut}}"""
+
+    allSamples.map(sampleJson).mkString("{\n\"samples\": [\n  ", ",\n  ", "\n],\n") +
+      summary.map(phaseJson).mkString("\"phases\": [\n  ", ",\n  ", "\n]\n}\n")
+  }
+
+  /** Writes the JSON report and prints the summary (if enabled) */
+  def report(): Unit = Config.metricsReport.foreach { path =>
+    val writer = new PrintWriter(path, "UTF-8")
+    try writer.write(toJson)
+    finally writer.close()
+
+    println(summaryTable)
+    println(s"Metrics written to $path")
+  }
+}
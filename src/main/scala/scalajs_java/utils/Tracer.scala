@@ -0,0 +1,119 @@
+package scalajs_java.utils
+
+import java.io.{BufferedWriter, File, FileOutputStream, OutputStreamWriter, Writer}
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.scalajs.core.ir.{Trees => irt}
+
+import scalajs_java.runtime.Config
+import scalajs_java.trees.{ClassDecl, CompilationUnit, Tree}
+import scalajs_java.utils.scope.ScopeElem
+
+/** Dumps the trees produced by the passes, for debugging.
+  *
+  * Enabled with `-Dscalajs_java.trace=<directory>`. The passes and classes
+  * to dump can be selected with `-Dscalajs_java.trace.passes=<names>` and
+  * `-Dscalajs_java.trace.classes=<names>` (comma-separated, a pass is
+  * selected if its name contains one of the given names).
+  *
+  * Every selected (pass, compilation unit) pair gets its own file, written
+  * node by node, one per line, so big trees are never held in memory as
+  * a string. */
+object Tracer {
+
+  private val counter = new AtomicInteger(0)
+
+  def enabled: Boolean = Config.traceDir.isDefined
+
+  def isTraced(pass: String): Boolean =
+    enabled && (Config.tracePasses.isEmpty || Config.tracePasses.exists(pass.contains))
+
+  private def isTracedClass(name: String): Boolean =
+    Config.traceClasses.isEmpty || Config.traceClasses.contains(name)
+
+  /** The part of a pass result that was selected for dumping */
+  private def selected(tree: Any): Option[Any] = tree match {
+    case cu: CompilationUnit =>
+      val classes = cu.typeDecls.filter {
+        case cd: ClassDecl => isTracedClass(cd.name.str)
+        case _             => false
+      }
+      if (classes.nonEmpty) Some(classes) else None
+
+    case cd: irt.ClassDef =>
+      if (isTracedClass(cd.name.name)) Some(cd) else None
+
+    case (defs: List[_], mainObject) =>
+      val classes = defs.collect {
+        case cd: irt.ClassDef if isTracedClass(cd.name.name) => cd
+      }
+      if (classes.nonEmpty) Some((classes, mainObject)) else None
+
+    case other =>
+      if (Config.traceClasses.isEmpty) Some(other) else None
+  }
+
+  private def fileName(pass: String, unit: String): String = {
+    val safe = (pass + "-" + unit).map(c => if (c.isLetterOrDigit) c else '_')
+    "%05d-%s.trace".format(counter.incrementAndGet(), safe)
+  }
+
+  /** Dumps the result of a pass, if selected */
+  def snapshot(pass: String, tree: Any): Unit = {
+    if (!isTraced(pass)) return
+
+    selected(tree).foreach { sel =>
+      val dir = new File(Config.traceDir.get)
+      dir.mkdirs()
+      val file = new File(dir, fileName(pass, Metrics.unitName(tree)))
+      val out = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file), StandardCharsets.UTF_8))
+      try dump(sel, out, 0)
+      finally out.close()
+    }
+  }
+
+  private def line(out: Writer, indent: Int, str: String): Unit = {
+    var i = 0
+    while (i < indent) { out.write("  "); i += 1 }
+    out.write(str)
+    out.write('\n')
+  }
+
+  /** Writes the tree, one node per line, children indented.
+    * References to other declarations are written by name only. */
+  def dump(node: Any, out: Writer, indent: Int): Unit = node match {
+    case t: Tree with Product =>
+      line(out, indent, t.productPrefix)
+      t.productIterator.foreach(dump(_, out, indent + 1))
+
+    case t: irt.Tree with Product =>
+      line(out, indent, t.productPrefix)
+      t.productIterator.foreach(dump(_, out, indent + 1))
+
+    case elem: ScopeElem =>
+      line(out, indent, "-> " + elem.name)
+
+    case Some(x) =>
+      dump(x, out, indent)
+
+    case None =>
+      line(out, indent, "<none>")
+
+    case it: Iterable[_] =>
+      if (it.isEmpty) {
+        line(out, indent, "[]")
+      } else {
+        line(out, indent, "[" + it.size + "]")
+        it.foreach(dump(_, out, indent + 1))
+      }
+
+    case (a, b) =>
+      dump(a, out, indent)
+      dump(b, out, indent)
+
+    case other =>
+      line(out, indent, String.valueOf(other))
+  }
+}
@@ -0,0 +1,187 @@
+package scalajs_java.utils.scope
+
+import scala.collection.immutable.HashMap
+import scalajs_java.traversals.Traverse
+import scalajs_java.trees._
+import scalajs_java.utils.{Mangler, Predicates}
+
+/** The classes declared in the project and how they are related: their
+  * supertypes and subtypes, their methods (by signature, see
+  * `ClassHierarchy.signature`), constructors and flags.
+  *
+  * Built once, from the trees of all the compilation units, right after
+  * the exported symbols are collected, and shared (it is immutable) by
+  * the passes and the compiler of every unit.
+  *
+  * Classes are identified by their full names (the names of their
+  * symbols). Supertypes declared outside of the project are only known
+  * by name. The classes created later on (desugared lambdas, renamed
+  * anonymous classes) are not in the index. */
+final class ClassHierarchy private (
+    classTable: HashMap[String, ClassHierarchy.Entry],
+    subtypeTable: HashMap[String, List[String]],
+    constructorTable: HashMap[SymbolKey, MethodDecl]) {
+
+  def get(className: String): Option[ClassDecl] =
+    classTable.get(className).map(_.decl)
+
+  def contains(className: String): Boolean =
+    classTable.contains(className)
+
+  def classNames: Iterable[String] = classTable.keys
+
+  /** The direct superclass, if it is not `Object` */
+  def superClass(className: String): Option[Symbol] =
+    classTable.get(className).flatMap(_.superClass)
+
+  def interfaces(className: String): List[Symbol] =
+    classTable.get(className).map(_.interfaces).getOrElse(Nil)
+
+  /** The names of the direct supertypes: the superclass, then the
+    * interfaces */
+  def supertypes(className: String): List[String] =
+    classTable.get(className).map(_.supertypes).getOrElse(Nil)
+
+  /** The names of all the supertypes, nearest first */
+  def allSupertypes(className: String): List[String] =
+    closure(className)(supertypes)
+
+  /** The names of the classes extending or implementing the given one */
+  def subtypes(className: String): List[String] =
+    subtypeTable.getOrElse(className, Nil)
+
+  /** The names of all the subtypes, nearest first */
+  def allSubtypes(className: String): List[String] =
+    closure(className)(subtypes)
+
+  def isSubtype(className: String, superName: String): Boolean =
+    className == superName || allSupertypes(className).contains(superName)
+
+  /** The methods declared by the class, by signature */
+  def methods(className: String): Map[String, MethodDecl] =
+    classTable.get(className).map(_.methods).getOrElse(Map.empty)
+
+  def constructors(className: String): List[MethodDecl] =
+    classTable.get(className).map(_.constructors).getOrElse(Nil)
+
+  /** The constructor with the given symbol */
+  def constructor(symbol: Symbol): Option[MethodDecl] =
+    if (symbol == null) None
+    else constructorTable.get(new SymbolKey(symbol))
+
+  /** The method with the given signature declared by the class or
+    * inherited from its nearest superclass in the project */
+  def lookupMethod(className: String, signature: String): Option[MethodDecl] = {
+    classTable.get(className) flatMap { entry =>
+      entry.methods.get(signature) orElse
+        entry.superClass.flatMap(sup => lookupMethod(sup.name, signature))
+    }
+  }
+
+  def isInterface(className: String): Boolean =
+    classTable.get(className).exists(_.decl.symbol.isInterface)
+
+  def isFinal(className: String): Boolean =
+    classTable.get(className).exists(_.decl.symbol.isFinal)
+
+  def isAbstract(className: String): Boolean =
+    classTable.get(className).exists(_.decl.symbol.isAbstract)
+
+  /** Whether none of the subtypes of the class overrides the method with
+    * the given signature (so its calls on the class can be devirtualized) */
+  def isEffectivelyFinal(className: String, signature: String): Boolean = {
+    isFinal(className) ||
+      allSubtypes(className).forall(!methods(_).contains(signature))
+  }
+
+  private def closure(className: String)(
+      next: String => List[String]): List[String] = {
+    var seen = Set(className)
+    var result: List[String] = Nil
+    var queue = next(className)
+    while (queue.nonEmpty) {
+      val name = queue.head
+      queue = queue.tail
+      if (!seen(name)) {
+        seen += name
+        result = name :: result
+        queue = queue ++ next(name)
+      }
+    }
+    result.reverse
+  }
+}
+
+object ClassHierarchy {
+
+  private[scope] case class Entry(decl: ClassDecl, superClass: Option[Symbol],
+      interfaces: List[Symbol], methods: Map[String, MethodDecl],
+      constructors: List[MethodDecl]) {
+    def supertypes: List[String] = (superClass.toList ++ interfaces).map(_.name)
+  }
+
+  val empty: ClassHierarchy =
+    new ClassHierarchy(HashMap.empty, HashMap.empty, HashMap.empty)
+
+  /** Collects all the class declarations, local and anonymous included */
+  private class ClassCollector extends Traverse {
+    var classDecls: List[ClassDecl] = Nil
+
+    override def traverse(classDecl: ClassDecl): ClassDecl = {
+      classDecls = classDecl :: classDecls
+      super.traverse(classDecl)
+    }
+  }
+
+  /** The symbol of the class a supertype clause refers to */
+  def typeSymbol(tree: Tree): Option[Symbol] = tree match {
+    case ident: Ident             => Option(ident.symbol)
+    case fieldAccess: FieldAccess => Option(fieldAccess.symbol)
+    case typeApply: TypeApply     => typeSymbol(typeApply.tpe)
+    case _                        => None
+  }
+
+  /** The name and parameter types of a method: methods with the same
+    * signature override each other */
+  def signature(methodDecl: MethodDecl, mangler: Mangler): String =
+    methodDecl.params.map(p => mangler.mangleType(p.varType))
+        .mkString(methodDecl.name.str + "(", ",", ")")
+
+  def apply(trees: List[CompilationUnit]): ClassHierarchy = {
+    val collector = new ClassCollector
+    trees.foreach(collector.traverse)
+
+    val mangler = new Mangler
+
+    val entries = collector.classDecls.reverse collect {
+      case cd if cd.symbol != null && cd.symbol.name.nonEmpty =>
+        val (ctors, methods) = cd.members.collect {
+          case md: MethodDecl => md
+        } partition Predicates.isConstructor
+
+        val entry = Entry(cd,
+          cd.extendsCl.flatMap(typeSymbol),
+          cd.implementsCl.flatMap(typeSymbol),
+          HashMap(methods.map(md => signature(md, mangler) -> md): _*),
+          ctors)
+
+        cd.symbol.name -> entry
+    }
+
+    val subtypes = entries.foldLeft(HashMap.empty[String, List[String]]) {
+      case (acc, (name, entry)) =>
+        entry.supertypes.foldLeft(acc) { (acc1, sup) =>
+          acc1.updated(sup, name :: acc1.getOrElse(sup, Nil))
+        }
+    }
+
+    val constructors = entries.foldLeft(HashMap.empty[SymbolKey, MethodDecl]) {
+      case (acc, (_, entry)) =>
+        acc ++ entry.constructors.map(md => new SymbolKey(md.symbol) -> md)
+    }
+
+    new ClassHierarchy(HashMap(entries: _*), subtypes.map {
+      case (name, subs) => name -> subs.reverse
+    }, constructors)
+  }
+}
@@ -1,8 +1,8 @@
 package scalajs_java.utils.scope
 
+import org.scalajs.core.ir
 import org.scalajs.core.ir.{Trees => irt}
 
-import scalajs_java.compiler.Utils
 import scalajs_java.trees._
 import scalajs_java.utils._
 
@@ -32,16 +32,19 @@ trait Scope {
 
   var scopeState: ScopeState = ScopeState.empty
 
-  val mangler = new Mangler
+  /** Gives the local variables their names. Shared with the compiler
+    * of the unit, which has to use the same names. */
+  var mangler: Mangler = new Mangler
 
   def addToScope(scopeElem: ScopeElem): Unit = scopeState.addElem(scopeElem)
 
-  def remFromScope(symbol: String): Unit = scopeState.remElem(symbol)
+  def remFromScope(scopeElem: ScopeElem): Unit = scopeState.remElem(scopeElem)
 
   def getScopeElems(members: List[Tree]): List[ScopeElem] = {
     members.collect {
       case vd: VarDecl =>
-        val pos = Utils.getPosition(vd)
+        // the compiler gives the names the positions of the references
+        val pos = ir.Position.NoPosition
         val mangledName = vd.kind match {
           case LocalVar    => mangler.encodeLocalSym(vd.symbol)(pos)
           case Param       => mangler.encodeParamIdent(vd.symbol)(pos)
@@ -63,7 +66,7 @@ trait Scope {
 
     val res = f(tree)
 
-    scopeElems.foreach(vi => remFromScope(vi.name))
+    scopeElems.reverse.foreach(remFromScope)
     res
   }
 
@@ -72,19 +75,10 @@ trait Scope {
 }
 
 object Scope {
-  type ClassMapT = Map[String, ClassDecl]
-
   def empty: ScopeState = ScopeState.empty
 
   def mkScope(scopes: List[ScopeState]): ScopeState =
-    scopes.reduce {_ ++ _}
-
-  def getClasses(scope: ScopeState): ClassMapT = {
-    scope.classes
-        .filter(entry => entry._2.nonEmpty)
-        .map(entry => (entry._1, entry._2.head.decl))
-        .toMap
-  }
+    ScopeState.merge(scopes)
 
   /* TODO make only `System.out.println` a library method,
    * not every `println` */
@@ -1,96 +1,178 @@
 package scalajs_java.utils.scope
 
-import scala.collection.mutable.{Map => MMap}
-
-class ScopeState(val vars: MMap[String, List[VarInfo]],
-                 val methods: MMap[String, List[MethodElem]],
-                 val classes: MMap[String, List[ClassInfo]]) {
+import scala.collection.immutable.HashMap
+import scalajs_java.trees.{ClassDecl, MethodDecl, Symbol, VarDecl}
+
+/** The declarations visible at some point of a traversal.
+  *
+  * Variables, methods and classes live in separate namespaces, keyed by
+  * their simple names, innermost declaration first. The declarations are
+  * also indexed by the identity of their symbols (which are shared, see
+  * `Interner`), so a reference whose symbol is known resolves to exactly
+  * the declaration javac chose, whatever it shadows.
+  *
+  * The tables are persistent maps: `copy` costs nothing, adding and
+  * removing a declaration (`Scope.withScope`) takes effectively constant
+  * time and `ScopeState.merge` is linear in the size of the scopes. */
+class ScopeState private (
+    private var varTable: HashMap[String, List[VarInfo]],
+    private var methodTable: HashMap[String, List[MethodElem]],
+    private var classTable: HashMap[String, List[ClassInfo]],
+    private var symbolTable: HashMap[SymbolKey, List[ScopeElem]]) {
+
+  def vars: Map[String, List[VarInfo]] = varTable
+
+  def methods: Map[String, List[MethodElem]] = methodTable
+
+  def classes: Map[String, List[ClassInfo]] = classTable
+
+  /** A copy that can be updated independently of this one */
+  def copy(): ScopeState =
+    new ScopeState(varTable, methodTable, classTable, symbolTable)
+
+  private def push[T](table: HashMap[String, List[T]], name: String,
+      elem: T): HashMap[String, List[T]] =
+    table.updated(name, elem :: table.getOrElse(name, Nil))
+
+  /** Removes `elem` (normally the head of its list) */
+  private def pop[K, T <: AnyRef](table: HashMap[K, List[T]], key: K,
+      elem: T): HashMap[K, List[T]] = {
+    val rest = table.get(key) match {
+      case Some(head :: tail) if head eq elem => tail
+      case Some(elems) if elems.exists(_ eq elem) =>
+        elems.filterNot(_ eq elem)
+
+      case _ =>
+        throw new Exception(s"[ScopeState -- remElem] " +
+            s"Cannot remove element ($key) -- not in scope.")
+    }
 
-  def ++(that: ScopeState): ScopeState = {
-    new ScopeState(
-      this.vars ++ that.vars,
-      this.methods ++ that.methods,
-      this.classes ++ that.classes)
+    if (rest.isEmpty) table - key else table.updated(key, rest)
   }
 
   def addElem(scopeElem: ScopeElem): Unit = {
-    val sym = scopeElem.name
+    val name = scopeElem.name
     scopeElem match {
-      case vi: VarInfo =>
-        if (!vars.contains(sym)) vars(sym) = Nil
-
-        vars(sym) = vi :: vars(sym)
+      case vi: VarInfo    => varTable = push(varTable, name, vi)
+      case mi: MethodInfo => methodTable = push(methodTable, name, mi)
+      case ci: ClassInfo  => classTable = push(classTable, name, ci)
 
-      case mi: MethodInfo =>
-        if (!methods.contains(sym)) methods(sym) = Nil
-
-        methods(sym) = mi :: methods(sym)
+      case _: LibraryMethod =>
+        throw new Exception("Cannot compile library methods")
+    }
 
-      case ci: ClassInfo =>
-        if (!classes.contains(sym)) classes(sym) = Nil
+    ScopeState.symbolOf(scopeElem).foreach { sym =>
+      val key = new SymbolKey(sym)
+      symbolTable = symbolTable.updated(key,
+        scopeElem :: symbolTable.getOrElse(key, Nil))
+    }
+  }
 
-        classes(sym) = ci :: classes(sym)
+  def remElem(scopeElem: ScopeElem): Unit = {
+    val name = scopeElem.name
+    scopeElem match {
+      case vi: VarInfo    => varTable = pop(varTable, name, vi)
+      case mi: MethodInfo => methodTable = pop(methodTable, name, mi)
+      case ci: ClassInfo  => classTable = pop(classTable, name, ci)
 
       case _: LibraryMethod =>
         throw new Exception("Cannot compile library methods")
     }
-  }
 
-  def remElem(sym: String): Unit = {
-    if (vars.contains(sym)) {
-      if (vars(sym).nonEmpty)
-        vars(sym) = vars(sym).tail
-
-      if (vars(sym).isEmpty)
-        vars.remove(sym)
-    } else if (methods.contains(sym)) {
-      if (methods(sym).nonEmpty)
-        methods(sym) = methods(sym).tail
-
-      if (methods(sym).isEmpty)
-        methods.remove(sym)
-    } else if (classes.contains(sym)) {
-      if (classes(sym).nonEmpty)
-        classes(sym) = classes(sym).tail
-
-      if (classes(sym).isEmpty)
-        classes.remove(sym)
-    } else {
-      throw new Exception(s"[ScopeT -- remElem]" +
-          s"Cannot remove element ($sym) -- not in scope.")
+    ScopeState.symbolOf(scopeElem).foreach { sym =>
+      symbolTable = pop(symbolTable, new SymbolKey(sym), scopeElem)
     }
   }
 
-  def getMethod(sym: String): Option[MethodElem] = {
-    methods.get(sym).flatMap {
-      case head :: _ => Some(head)
-      case _         => Scope.libraryMethods.get(sym)
-    }
+  /** The innermost declaration of the given symbol */
+  def getBySymbol(symbol: Symbol): Option[ScopeElem] = {
+    if (symbol == null) None
+    else symbolTable.get(new SymbolKey(symbol)).flatMap(_.headOption)
   }
 
-  def getVar(sym: String): Option[VarInfo] = {
-    vars.get(sym).flatMap {
-      case head :: _ => Some(head)
-      case _         => None
+  def getMethod(sym: String): Option[MethodElem] = {
+    methodTable.get(sym) match {
+      case Some(head :: _) => Some(head)
+      case _               => Scope.libraryMethods.get(sym)
     }
   }
 
-  def getClass(sym: String): Option[ClassInfo] = {
-    classes.get(sym).flatMap {
-      case head :: _ => Some(head)
-      case _         => None
+  /** The method with the given symbol or, if it is unknown, name */
+  def getMethod(symbol: Symbol, name: String): Option[MethodElem] = {
+    getBySymbol(symbol) match {
+      case Some(mElem: MethodElem) => Some(mElem)
+      case _                       => getMethod(name)
     }
   }
 
+  def getVar(sym: String): Option[VarInfo] =
+    varTable.get(sym).flatMap(_.headOption)
+
+  def getClass(sym: String): Option[ClassInfo] =
+    classTable.get(sym).flatMap(_.headOption)
+
   def getElem(sym: String): Option[ScopeElem] = {
-    if (vars.contains(sym)) getVar(sym)
-    else if (methods.contains(sym)) getMethod(sym)
-    else if (classes.contains(sym)) getClass(sym)
+    if (varTable.contains(sym)) getVar(sym)
+    else if (methodTable.contains(sym)) getMethod(sym)
+    else if (classTable.contains(sym)) getClass(sym)
     else None
   }
+
+  /** The declaration with the given symbol or, if it is unknown, name */
+  def getElem(symbol: Symbol, name: String): Option[ScopeElem] =
+    getBySymbol(symbol).orElse(getElem(name))
+}
+
+/** Compares symbols by identity (the case class equality would hash
+  * the whole owner chain on every lookup) */
+final class SymbolKey(val symbol: Symbol) {
+  override def hashCode: Int = System.identityHashCode(symbol)
+
+  override def equals(that: Any): Boolean = that match {
+    case key: SymbolKey => key.symbol eq symbol
+    case _              => false
+  }
+
+  override def toString: String = String.valueOf(symbol)
 }
 
 object ScopeState {
   def empty: ScopeState =
-    new ScopeState(MMap.empty, MMap.empty, MMap.empty)
+    new ScopeState(HashMap.empty, HashMap.empty, HashMap.empty, HashMap.empty)
+
+  private def symbolOf(scopeElem: ScopeElem): Option[Symbol] = {
+    val sym = scopeElem.decl match {
+      case vd: VarDecl    => vd.symbol
+      case md: MethodDecl => md.symbol
+      case cd: ClassDecl  => cd.symbol
+      case _              => null
+    }
+    Option(sym)
+  }
+
+  private def mergeTables[K, T](
+      tables: List[HashMap[K, List[T]]]): HashMap[K, List[T]] = {
+    tables.foldLeft(HashMap.empty[K, List[T]]) { (acc, table) =>
+      if (acc.isEmpty) {
+        table
+      } else {
+        table.foldLeft(acc) { case (merged, (key, elems)) =>
+          merged.get(key) match {
+            case Some(prev) => merged.updated(key, elems ::: prev)
+            case None       => merged.updated(key, elems)
+          }
+        }
+      }
+    }
+  }
+
+  /** All the declarations of the given scopes. The ones of later scopes
+    * come first (so they win lookups by name, as they used to). */
+  def merge(scopes: List[ScopeState]): ScopeState = {
+    new ScopeState(
+      mergeTables(scopes.map(_.varTable)),
+      mergeTables(scopes.map(_.methodTable)),
+      mergeTables(scopes.map(_.classTable)),
+      mergeTables(scopes.map(_.symbolTable)))
+  }
 }
@@ -0,0 +1,69 @@
+package scalajs_java
+
+import org.junit.Assert._
+import org.junit.Test
+import org.scalajs.core.ir.Position
+import org.scalajs.core.ir.Trees._
+import org.scalajs.core.ir.Types._
+
+import scalajs_java.compiler.BoxElim
+
+/** Tests of the removal of the conversions of generic locals */
+class BoxElimTest {
+
+  private implicit val pos: Position = Position.NoPosition
+
+  private val x = Ident("x")
+
+  /** A method body with the generic local `x` initialized to `init`,
+    * assigned `assigned` and read as an int */
+  private def body(init: Tree, assigned: Tree): Tree = {
+    Block(List(
+      VarDef(x, AnyType, mutable = true, init),
+      Assign(VarRef(x)(AnyType), assigned),
+      Return(BinaryOp(BinaryOp.Int_+,
+        Unbox(VarRef(x)(AnyType), 'I'), IntLiteral(1)))))
+  }
+
+  private def localTypes(tree: Tree): List[Type] = tree match {
+    case Block(stats)             => stats.flatMap(localTypes)
+    case VarDef(_, tpe, _, _)     => List(tpe)
+    case Assign(lhs, _)           => localTypes(lhs)
+    case Return(expr, _)          => localTypes(expr)
+    case BinaryOp(_, lhs, rhs)    => localTypes(lhs) ++ localTypes(rhs)
+    case Unbox(expr, _)           => localTypes(expr)
+    case ref: VarRef              => List(ref.tpe)
+    case _                        => Nil
+  }
+
+  private def unboxCount(tree: Tree): Int = tree match {
+    case Block(stats)          => stats.map(unboxCount).sum
+    case Return(expr, _)       => unboxCount(expr)
+    case BinaryOp(_, lhs, rhs) => unboxCount(lhs) + unboxCount(rhs)
+    case Unbox(expr, _)        => 1 + unboxCount(expr)
+    case _                     => 0
+  }
+
+  @Test def narrowIntLocal(): Unit = {
+    val res = new BoxElim().elim(body(IntLiteral(1), IntLiteral(2)),
+      isStat = false)
+
+    assertEquals(List(IntType, IntType, IntType), localTypes(res))
+    assertEquals(0, unboxCount(res))
+  }
+
+  @Test def keepLocalAssignedNull(): Unit = {
+    val res = new BoxElim().elim(body(IntLiteral(1), Null()), isStat = false)
+
+    assertEquals(List(AnyType, AnyType, AnyType), localTypes(res))
+    assertEquals(1, unboxCount(res))
+  }
+
+  @Test def keepLocalAssignedOtherType(): Unit = {
+    val res = new BoxElim().elim(body(IntLiteral(1), DoubleLiteral(2.5)),
+      isStat = false)
+
+    assertEquals(List(AnyType, AnyType, AnyType), localTypes(res))
+    assertEquals(1, unboxCount(res))
+  }
+}
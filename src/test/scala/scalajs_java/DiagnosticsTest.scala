@@ -0,0 +1,142 @@
+package scalajs_java
+
+import java.io.{ByteArrayOutputStream, PrintStream}
+
+import org.junit.Assert._
+import org.junit.Test
+
+import scala.collection.JavaConversions._
+import scalajs_java.compiler.CompilerPipeline
+import scalajs_java.utils.CompilationFailed
+
+/** Tests of the reporting of errors */
+class DiagnosticsTest {
+
+  private def record(severity: DiagnosticSink.Severity,
+      message: String): DiagnosticSink.Record =
+    new DiagnosticSink.Record("Test phase", severity, 1, 0, null, message)
+
+  /** Runs `body` with `sink` as the global sink */
+  private def withSink[T](sink: DiagnosticSink)(body: => T): T = {
+    val previous = DiagnosticSink.global()
+    DiagnosticSink.setGlobal(sink)
+    try body
+    finally DiagnosticSink.setGlobal(previous)
+  }
+
+  @Test def errorLimit(): Unit = {
+    val out = new ByteArrayOutputStream
+    val sink = new DiagnosticSink(new PrintStream(out, true, "UTF-8"), 2)
+
+    assertTrue(sink.report(record(DiagnosticSink.Severity.ERROR, "first")))
+    assertTrue(sink.report(record(DiagnosticSink.Severity.WARNING, "warning")))
+    assertTrue(sink.report(record(DiagnosticSink.Severity.ERROR, "second")))
+    assertTrue(sink.limitReached())
+
+    assertFalse(sink.report(record(DiagnosticSink.Severity.ERROR, "third")))
+    assertFalse(sink.report(record(DiagnosticSink.Severity.FATAL, "fourth")))
+    assertFalse(sink.report(record(DiagnosticSink.Severity.WARNING, "dropped")))
+
+    assertEquals(4, sink.errorCount())
+    assertEquals(2, sink.warningCount())
+    assertEquals(List("first", "warning", "second"),
+      sink.records().toList.map(_.message))
+
+    val lines = out.toString("UTF-8").trim.split("\n").toList
+    assertEquals(4, lines.size)
+    assertEquals(1, lines.count(_.contains("too many errors")))
+    assertFalse(lines.exists(_.contains("third")))
+
+    sink.reset()
+    assertEquals(0, sink.errorCount())
+    assertFalse(sink.limitReached())
+  }
+
+  @Test def parallelFailures(): Unit = {
+    val mainSource =
+      """
+        |class Test {
+        |  public static void main(String[] args) {
+        |    Object lock = new Object();
+        |    synchronized (lock) {
+        |      System.out.println(new Test2().run());
+        |    }
+        |  }
+        |}
+      """.stripMargin
+    val otherSource =
+      """
+        |class Test2 {
+        |  int run() {
+        |    synchronized (this) {
+        |      return 42;
+        |    }
+        |  }
+        |}
+      """.stripMargin
+
+    val javaCompiler = new CompilerInterface()
+    javaCompiler.compileVirtualProject(List("Test", "Test2"),
+      List(mainSource, otherSource))
+    assertEquals(0, javaCompiler.errCount)
+
+    val sink = new DiagnosticSink(new PrintStream(new ByteArrayOutputStream), 100)
+    withSink(sink) {
+      val pipeline = new CompilerPipeline(verbose = false, middleEndThreads = 2)
+      try {
+        pipeline.runPasses(javaCompiler.compilationUnits.toList)
+        fail("the compilation should have failed")
+      } catch {
+        case _: CompilationFailed => ()
+      }
+    }
+
+    assertTrue(sink.errorCount() > 0)
+    assertTrue(sink.records().exists(_.message.contains("Synchronized")))
+  }
+
+  @Test def libraryIterableLoop(): Unit = {
+    // the loop is reported, not bound to `Test2.next`
+    val mainSource =
+      """
+        |class Test {
+        |  static int sum(Iterable<Integer> xs) {
+        |    int sum = 0;
+        |    for (int x : xs) sum += x;
+        |    return sum;
+        |  }
+        |
+        |  public static void main(String[] args) {
+        |    System.out.println(0);
+        |  }
+        |}
+      """.stripMargin
+    val otherSource =
+      """
+        |class Test2 {
+        |  Test2 next() {
+        |    return this;
+        |  }
+        |}
+      """.stripMargin
+
+    val javaCompiler = new CompilerInterface()
+    javaCompiler.compileVirtualProject(List("Test", "Test2"),
+      List(mainSource, otherSource))
+    assertEquals(0, javaCompiler.errCount)
+
+    val sink = new DiagnosticSink(new PrintStream(new ByteArrayOutputStream), 100)
+    withSink(sink) {
+      try {
+        new CompilerPipeline(verbose = false).runPasses(
+          javaCompiler.compilationUnits.toList)
+        fail("the compilation should have failed")
+      } catch {
+        case _: CompilationFailed => ()
+      }
+    }
+
+    assertTrue(sink.records().exists(_.message.contains(
+      "enhanced for loop over java.lang.Iterable<java.lang.Integer>")))
+  }
+}
@@ -0,0 +1,187 @@
+package scalajs_java
+
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+
+import org.junit.Assert._
+import org.junit.Test
+import org.scalajs.core.tools.logging._
+import org.scalajs.jsenv.JSConsole
+
+import scala.collection.JavaConversions._
+import scalajs_java.compiler.{CompilerPipeline, IncrementalCache}
+import scalajs_java.runtime.Runner
+
+/** Blackbox tests for the incremental compilation of projects on disk */
+class IncrementalRunTest {
+
+  private def mkProject(): File =
+    Files.createTempDirectory("scalajs-java-test").toFile
+
+  private def deleteAll(file: File): Unit = {
+    Option(file.listFiles).toList.flatten.foreach(deleteAll)
+    file.delete()
+  }
+
+  /** The name of a source of the project, as used by the cache */
+  private def sourceName(project: File, path: String): String =
+    new File(project, "src/" + path).getAbsoluteFile.toURI.getPath
+
+  private def writeSource(project: File, path: String, code: String): Unit = {
+    val file = new File(project, "src/" + path)
+    file.getParentFile.mkdirs()
+    Files.write(file.toPath, code.stripMargin.getBytes(StandardCharsets.UTF_8))
+  }
+
+  private def fingerprints(project: File,
+      cache: IncrementalCache): Map[String, String] = {
+    new CompilerInterface().listSources(project.getPath).toList
+      .map(src => src -> cache.fingerprint(src)).toMap
+  }
+
+  /** Builds the project and returns what its main method printed */
+  private def build(project: File, cache: IncrementalCache): String = {
+    val compiled = new CompilerPipeline(verbose = false).compileProject(
+      new CompilerInterface(), project.getPath, NullLogger, cache = Some(cache))
+
+    compiled match {
+      case Some((linked, mainObjectName)) =>
+        val lines = new java.io.StringWriter
+        val console = new JSConsole {
+          def log(msg: Any): Unit = lines.append(msg.toString + "\n")
+        }
+
+        Runner.run(mainObjectName, linked, NullLogger, console)
+        lines.toString.trim
+
+      case None =>
+        fail("the project did not compile")
+        ""
+    }
+  }
+
+  private def writeUtil(project: File, value: Int): Unit = {
+    writeSource(project, "test/Util.java",
+      s"""
+        |package test;
+        |
+        |class Util {
+        |  static int value() {
+        |    return $value;
+        |  }
+        |}
+      """)
+  }
+
+  private def writePackagedProject(project: File): Unit = {
+    writeSource(project, "test/Test.java",
+      """
+        |package test;
+        |
+        |class Test {
+        |  public static void main(String[] args) {
+        |    System.out.println(Util.value());
+        |  }
+        |}
+      """)
+    writeUtil(project, 1)
+    writeSource(project, "test/Other.java",
+      """
+        |package test;
+        |
+        |class Other {
+        |  static int x = 2;
+        |}
+      """)
+  }
+
+  @Test def recompileDependents(): Unit = {
+    val project = mkProject()
+    try {
+      writePackagedProject(project)
+      val cache = new IncrementalCache()
+      assertEquals("1\n0", build(project, cache))
+
+      val test = sourceName(project, "test/Test.java")
+      val util = sourceName(project, "test/Util.java")
+      val other = sourceName(project, "test/Other.java")
+      val otherRecord = cache.get(other)
+
+      writeUtil(project, 2)
+      assertEquals(Set(util, test), cache.invalidated(fingerprints(project, cache)))
+
+      assertEquals("2\n0", build(project, cache))
+      // the unit that does not use `Util` was not compiled again
+      assertTrue(cache.get(other).get eq otherRecord.get)
+    } finally {
+      deleteAll(project)
+    }
+  }
+
+  /** The IR files kept in a cache directory */
+  private def cachedIRFiles(cacheDir: File): List[File] = {
+    Option(cacheDir.listFiles).toList.flatten.filter(_.isDirectory)
+      .flatMap(dir => Option(dir.listFiles).toList.flatten)
+  }
+
+  @Test def reloadCache(): Unit = {
+    val project = mkProject()
+    val cacheDir = new File(project, "cache")
+    try {
+      writePackagedProject(project)
+      assertEquals("1\n0", build(project, IncrementalCache.load(cacheDir)))
+      assertTrue(cachedIRFiles(cacheDir).nonEmpty)
+
+      val reloaded = IncrementalCache.load(cacheDir)
+      assertEquals(Set.empty, reloaded.invalidated(fingerprints(project, reloaded)))
+      assertEquals("1\n0", build(project, reloaded))
+    } finally {
+      deleteAll(project)
+    }
+  }
+
+  @Test def noOpBuildKeepsCachedFiles(): Unit = {
+    val project = mkProject()
+    val cacheDir = new File(project, "cache")
+    try {
+      writePackagedProject(project)
+      assertEquals("1\n0", build(project, IncrementalCache.load(cacheDir)))
+
+      // the IR files are versioned by their modification time
+      val files = new File(cacheDir, "index") :: cachedIRFiles(cacheDir)
+      val oldTime = 1000000L
+      files.foreach(_.setLastModified(oldTime))
+
+      assertEquals("1\n0", build(project, IncrementalCache.load(cacheDir)))
+      assertEquals(files.map(_ => oldTime), files.map(_.lastModified))
+    } finally {
+      deleteAll(project)
+    }
+  }
+
+  @Test def cacheKeepsUnrelatedDirectories(): Unit = {
+    val project = mkProject()
+    val cacheDir = new File(project, "cache")
+    try {
+      val notes = new File(cacheDir, "notes")
+      notes.mkdirs()
+      val note = new File(notes, "todo.txt")
+      Files.write(note.toPath, "keep me".getBytes(StandardCharsets.UTF_8))
+
+      writePackagedProject(project)
+      val cache = IncrementalCache.load(cacheDir)
+      assertEquals("1\n0", build(project, cache))
+      val oldFingerprint = cache.get(sourceName(project, "test/Util.java")).get.fingerprint
+
+      writeUtil(project, 2)
+      assertEquals("2\n0", build(project, IncrementalCache.load(cacheDir)))
+
+      // the IR of the old version of the unit is removed, nothing else
+      assertFalse(new File(cacheDir, oldFingerprint).exists)
+      assertTrue(note.isFile)
+    } finally {
+      deleteAll(project)
+    }
+  }
+}
@@ -6,6 +6,10 @@ package scalajs_java
  * by @sjrd
  */
 
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+
 import org.junit.Assert._
 import org.junit.Test
 import org.scalajs.core.tools.logging._
@@ -86,6 +90,50 @@ class MultifileRunTest {
     assertEquals(expected.toString + "\n0", lines.toString.trim)
   }
 
+  /** Like `assertRun`, but the sources (full path from the source root
+    * and code) are written to a project on disk and compiled by
+    * `compileProjectParallel` with `threads` threads */
+  private def assertRunProject(expected: Any, sources: List[(String, String)],
+                               threads: Int): Unit = {
+    val project = Files.createTempDirectory("scalajs-java-test").toFile
+    def deleteAll(file: File): Unit = {
+      Option(file.listFiles).toList.flatten.foreach(deleteAll)
+      file.delete()
+    }
+
+    try {
+      for ((path, code) <- sources) {
+        val file = new File(project, "src/" + path)
+        file.getParentFile.mkdirs()
+        Files.write(file.toPath, code.stripMargin.getBytes(StandardCharsets.UTF_8))
+      }
+
+      val javaCompiler = new CompilerInterface()
+      javaCompiler.compileProjectParallel(project.getPath, threads)
+      if (javaCompiler.errCount > 0) {
+        println(javaCompiler.formatErrors())
+        fail()
+      }
+
+      val compilerPipeline = new CompilerPipeline(verbose = false)
+      val (classDefs, mainObjectName) =
+        compilerPipeline.runPasses(javaCompiler.compilationUnits.toList)
+
+      val linked = Linker.link(classDefs, NullLogger)
+
+      val lines = new java.io.StringWriter
+      val console = new JSConsole {
+        def log(msg: Any): Unit = lines.append(msg.toString + "\n")
+      }
+
+      Runner.run(mainObjectName, linked, NullLogger, console)
+
+      assertEquals(expected.toString + "\n0", lines.toString.trim)
+    } finally {
+      deleteAll(project)
+    }
+  }
+
   @Test def runFieldAccess(): Unit = {
     assertRun("0",
       """
@@ -616,6 +664,106 @@ class MultifileRunTest {
           """.stripMargin, false)))
   }
 
+  @Test def runReachableThroughDispatch(): Unit = {
+    // `area` and `name` of the subclasses are only called through the
+    // interface and the superclass (with `Config.pruneUnreachable` on)
+    assertRun("36\nderived\nbase",
+      """
+        |Test2 shape = new Test3(6);
+        |System.out.println(shape.area());
+        |Test4 base = new Test5();
+        |System.out.println(base.name());
+        |System.out.println(new Test4().name());
+      """.stripMargin,
+      List(
+        ("Test2", None, Nil,
+          """
+            |public int area();
+          """.stripMargin, true),
+        ("Test3", None, List("Test2"),
+          """
+            |int side;
+            |
+            |Test3(int side) {
+            |  this.side = side;
+            |}
+            |
+            |public int area() {
+            |  return side * side;
+            |}
+          """.stripMargin, false),
+        ("Test4", None, Nil,
+          """
+            |String name() {
+            |  return "base";
+            |}
+          """.stripMargin, false),
+        ("Test5", Some("Test4"), Nil,
+          """
+            |String name() {
+            |  return "derived";
+            |}
+          """.stripMargin, false)))
+  }
+
+  @Test def runIterableLoop(): Unit = {
+    // `Test4.next` has the name of the method of the iterator, but is not
+    // the one the loop calls
+    assertRun("10\n4",
+      """
+        |Test2 range = new Test2(1, 5);
+        |int sum = 0;
+        |for (int x : range) sum += x;
+        |System.out.println(sum);
+        |int odd = 0;
+        |for (int x : range) {
+        |  if (x % 2 == 0) continue;
+        |  odd += x;
+        |}
+        |System.out.println(odd);
+      """.stripMargin,
+      List(
+        ("Test2", None, List("Iterable<Integer>"),
+          """
+            |int from;
+            |int to;
+            |
+            |Test2(int from, int to) {
+            |  this.from = from;
+            |  this.to = to;
+            |}
+            |
+            |public Test3 iterator() {
+            |  return new Test3(from, to);
+            |}
+          """.stripMargin, false),
+        ("Test3", None, List("java.util.Iterator<Integer>"),
+          """
+            |int current;
+            |int to;
+            |
+            |Test3(int current, int to) {
+            |  this.current = current;
+            |  this.to = to;
+            |}
+            |
+            |public boolean hasNext() {
+            |  return current < to;
+            |}
+            |
+            |public Integer next() {
+            |  current++;
+            |  return current - 1;
+            |}
+          """.stripMargin, false),
+        ("Test4", None, Nil,
+          """
+            |Test4 next() {
+            |  return this;
+            |}
+          """.stripMargin, false)))
+  }
+
   @Test def runAnonymousClasses(): Unit = {
     assertRun("42",
       """
@@ -668,4 +816,54 @@ class MultifileRunTest {
           """.stripMargin, true)))
   }
 
+  @Test def runParallelFrontEnd(): Unit = {
+    // the packages do not import each other, so they are typechecked by
+    // separate javac instances, with their own symbols for `b.Counter`
+    assertRunProject("42\n42\n7",
+      List(
+        ("a/Test.java",
+          """
+            |package a;
+            |
+            |class Test {
+            |  public static void main(String[] args) {
+            |    b.Counter c = new b.Counter(40);
+            |    c.add(2);
+            |    System.out.println(c.get());
+            |    System.out.println(b.Counter.twice(21));
+            |    System.out.println(new b.Counter().get());
+            |  }
+            |}
+          """),
+        ("b/Counter.java",
+          """
+            |package b;
+            |
+            |public class Counter {
+            |  private int count;
+            |
+            |  public Counter() {
+            |    this(7);
+            |  }
+            |
+            |  public Counter(int count) {
+            |    this.count = count;
+            |  }
+            |
+            |  public void add(int n) {
+            |    count += n;
+            |  }
+            |
+            |  public int get() {
+            |    return count;
+            |  }
+            |
+            |  public static int twice(int n) {
+            |    return 2 * n;
+            |  }
+            |}
+          """)),
+      threads = 2)
+  }
+
 }
@@ -0,0 +1,188 @@
+package scalajs_java
+
+import java.io.{ByteArrayOutputStream, PrintStream}
+
+import org.junit.Assert._
+import org.junit.Test
+
+import scala.collection.JavaConversions._
+import scalajs_java.compiler.Compiler
+import scalajs_java.traversals.Traverse
+import scalajs_java.trees._
+import scalajs_java.utils.{CompilerPhase, ErrorHandler}
+import scalajs_java.utils.scope.ClassHierarchy
+
+/** Checks that the tree kinds are distinct and that every dispatcher on
+  * them reaches a handler of every kind (or its default case on purpose) */
+class NodeKindTest {
+
+  /** Every tree class, in the order of their kinds */
+  private val treeClasses: List[Class[_ <: Tree]] = List(
+    classOf[CompilationUnit], classOf[Import], classOf[Modifiers],
+    classOf[MethodDecl], classOf[TypeParam], classOf[CatchTree],
+    classOf[EmptyTree], classOf[LetExpr], classOf[Annotation],
+    classOf[AnnotatedType], classOf[Wildcard], classOf[TypeIntersection],
+    classOf[TypeUnion], classOf[TypeApply], classOf[ArrayTypeTree],
+    classOf[PrimitiveTypeTree], classOf[AnyTypeTree], classOf[BooleanLiteral],
+    classOf[CharLiteral], classOf[IntLiteral], classOf[LongLiteral],
+    classOf[FloatLiteral], classOf[DoubleLiteral], classOf[ClassLiteral],
+    classOf[NullLiteral], classOf[Ident], classOf[FieldAccess],
+    classOf[ArrayAccess], classOf[ArrayLength], classOf[InstanceOf],
+    classOf[TypeCast], classOf[Binary], classOf[Unary], classOf[AssignOp],
+    classOf[Assign], classOf[Parens], classOf[NewArray], classOf[MethodInv],
+    classOf[Conditional], classOf[NewClass], classOf[MemberRef],
+    classOf[Lambda], classOf[VarDecl], classOf[ClassDecl], classOf[Assert],
+    classOf[Throw], classOf[Return], classOf[Continue], classOf[Break],
+    classOf[ExprStatement], classOf[If], classOf[Block], classOf[TryStmt],
+    classOf[Skip], classOf[Case], classOf[Switch], classOf[Synchronized],
+    classOf[LabeledStmt], classOf[EnhancedForLoop], classOf[ForLoop],
+    classOf[WhileLoop], classOf[DoWhileLoop], classOf[ErrorTree])
+
+  private val primitiveDefaults: Map[Class[_], AnyRef] = Map(
+    classOf[Boolean] -> Boolean.box(false),
+    classOf[Char] -> Char.box('a'),
+    classOf[Int] -> Int.box(0),
+    classOf[Long] -> Long.box(0L), // positions as well
+    classOf[Float] -> Float.box(0f),
+    classOf[Double] -> Double.box(0d))
+
+  /** A tree of the class `cls`, with `null` children (the dispatchers only
+    * look at its kind) */
+  private def mkTree(cls: Class[_ <: Tree]): Tree = {
+    val ctor = cls.getConstructors.head
+    val args = ctor.getParameterTypes.map(primitiveDefaults.getOrElse(_, null))
+    ctor.newInstance(args: _*).asInstanceOf[Tree]
+  }
+
+  private lazy val trees: List[Tree] = treeClasses.map(mkTree)
+
+  private def kindName(kind: Int): String =
+    treeClasses(kind).getSimpleName
+
+  private def kindNames(kinds: Iterable[Int]): Set[String] =
+    kinds.map(kindName).toSet
+
+  @Test def kindsAreDistinct(): Unit = {
+    assertEquals(NodeKind.Count, treeClasses.size)
+    assertEquals((0 until NodeKind.Count).toList, trees.map(_.nodeKind))
+  }
+
+  /** Records the kinds of the trees reaching their own `traverse` */
+  private class RecordingTraverse extends Traverse {
+    var reached: Set[Int] = Set.empty
+
+    private def seen[T <: Tree](tree: T): T = {
+      reached += tree.nodeKind
+      tree
+    }
+
+    override def traverse(compilationUnit: CompilationUnit): CompilationUnit =
+      seen(compilationUnit)
+    override def traverse(imp: Import): Import = seen(imp)
+    override def traverse(methodDecl: MethodDecl): MethodDecl = seen(methodDecl)
+    override def traverse(typeParam: TypeParam): TypeParam = seen(typeParam)
+    override def traverse(catchTree: CatchTree): CatchTree = seen(catchTree)
+    override def traverse(letExpr: LetExpr): LetExpr = seen(letExpr)
+    override def traverse(annotation: Annotation): Annotation = seen(annotation)
+    override def traverse(annotatedType: AnnotatedType): AnnotatedType =
+      seen(annotatedType)
+    override def traverse(wildcard: Wildcard): Wildcard = seen(wildcard)
+    override def traverse(typeIntersection: TypeIntersection): TypeIntersection =
+      seen(typeIntersection)
+    override def traverse(typeUnion: TypeUnion): TypeUnion = seen(typeUnion)
+    override def traverse(typeApply: TypeApply): TypeApply = seen(typeApply)
+    override def traverse(arrayTypeTree: ArrayTypeTree): ArrayTypeTree =
+      seen(arrayTypeTree)
+    override def traverse(classLiteral: ClassLiteral): ClassLiteral =
+      seen(classLiteral)
+    override def traverse(literal: Literal): Literal = seen(literal)
+    override def traverse(ident: Ident): Ident = seen(ident)
+    override def traverse(fieldAccess: FieldAccess): FieldAccess =
+      seen(fieldAccess)
+    override def traverse(arrayAccess: ArrayAccess): ArrayAccess =
+      seen(arrayAccess)
+    override def traverse(arrayLength: ArrayLength): ArrayLength =
+      seen(arrayLength)
+    override def traverse(instanceOf: InstanceOf): InstanceOf = seen(instanceOf)
+    override def traverse(typeCast: TypeCast): TypeCast = seen(typeCast)
+    override def traverse(binary: Binary): Binary = seen(binary)
+    override def traverse(unary: Unary): Expr = seen(unary)
+    override def traverse(assignOp: AssignOp): Expr = seen(assignOp)
+    override def traverse(assign: Assign): Assign = seen(assign)
+    override def traverse(parens: Parens): Parens = seen(parens)
+    override def traverse(newArray: NewArray): NewArray = seen(newArray)
+    override def traverse(methodInv: MethodInv): MethodInv = seen(methodInv)
+    override def traverse(conditional: Conditional): Conditional =
+      seen(conditional)
+    override def traverse(newClass: NewClass): NewClass = seen(newClass)
+    override def traverse(memberRef: MemberRef): MemberRef = seen(memberRef)
+    override def traverse(lambda: Lambda): Expr = seen(lambda)
+    override def traverse(classDecl: ClassDecl): ClassDecl = seen(classDecl)
+    override def traverse(varDecl: VarDecl): VarDecl = seen(varDecl)
+    override def traverse(assert: Assert): Assert = seen(assert)
+    override def traverse(thr: Throw): Throw = seen(thr)
+    override def traverse(ret: Return): Return = seen(ret)
+    override def traverse(exprStmt: ExprStatement): ExprStatement =
+      seen(exprStmt)
+    override def traverse(ifStmt: If): If = seen(ifStmt)
+    override def traverse(block: Block): Block = seen(block)
+    override def traverse(tryStmt: TryStmt): TryStmt = seen(tryStmt)
+    override def traverse(caseStmt: Case): Case = seen(caseStmt)
+    override def traverse(switch: Switch): Switch = seen(switch)
+    override def traverse(synchronized: Synchronized): Synchronized =
+      seen(synchronized)
+    override def traverse(labeledStmt: LabeledStmt): LabeledStmt =
+      seen(labeledStmt)
+    override def traverse(enhForLoop: EnhancedForLoop): Statement =
+      seen(enhForLoop)
+    override def traverse(forLoop: ForLoop): Statement = seen(forLoop)
+    override def traverse(whileLoop: WhileLoop): Statement = seen(whileLoop)
+    override def traverse(doWhileLoop: DoWhileLoop): Statement =
+      seen(doWhileLoop)
+  }
+
+  @Test def traverseReachesEveryHandler(): Unit = {
+    val traversal = new RecordingTraverse
+    trees.foreach(tree => traversal.traverse(tree: Tree))
+
+    val defaulted = (0 until NodeKind.Count).filterNot(traversal.reached)
+
+    // the leaves: there is nothing to traverse in them
+    assertEquals(Set("Modifiers", "EmptyTree", "PrimitiveTypeTree",
+      "AnyTypeTree", "Continue", "Break", "Skip", "ErrorTree"),
+      kindNames(defaulted))
+  }
+
+  private val dispatchers = Set("compileTree", "compileExpr", "compileStatement")
+
+  /** Whether compiling `tree` ends in the default case of a dispatcher of
+    * the compiler (the handlers fail on the `null` children, which is fine) */
+  private def compilerDefaults(tree: Tree): Boolean = {
+    val sink = new DiagnosticSink(new PrintStream(new ByteArrayOutputStream), 100)
+    val errorHandler = new ErrorHandler(CompilerPhase("Test"), sink)
+    val compiler = new Compiler(Map.empty, ClassHierarchy(Nil), Map.empty,
+      errorHandler)
+
+    try compiler.compileTree(tree)
+    catch {
+      case _: Exception => ()
+    }
+
+    sink.records().exists { record =>
+      dispatchers(record.method) && record.message.startsWith("Not supported yet")
+    }
+  }
+
+  @Test def compilerReachesEveryHandler(): Unit = {
+    val defaulted = trees.filter(compilerDefaults).map(_.nodeKind)
+
+    // not supported yet, or removed by the passes before the compiler
+    // (desugared loops and compound assignments, cases of a switch)
+    assertEquals(Set("Modifiers", "TypeParam", "CatchTree", "LetExpr",
+      "Annotation", "AnnotatedType", "Wildcard", "TypeIntersection",
+      "TypeUnion", "ArrayTypeTree", "PrimitiveTypeTree", "AnyTypeTree",
+      "InstanceOf", "TypeCast", "AssignOp", "Assert", "TryStmt", "Case",
+      "Synchronized", "EnhancedForLoop", "ForLoop"),
+      kindNames(defaulted))
+  }
+}
@@ -14,7 +14,9 @@ import org.scalajs.jsenv.JSConsole
 
 import scalajs_java.compiler.passes._
 import scalajs_java.runtime.{Linker, Runner}
-import scalajs_java.utils.scope.Scope
+import scalajs_java.trees.{CompilationUnit, Expr, Interner}
+import scalajs_java.utils.Mangler
+import scalajs_java.utils.scope.{ClassHierarchy, Scope}
 
 /** Blackbox tests */
 class SimpleRunTest {
@@ -40,13 +42,16 @@ class SimpleRunTest {
     val javaCompiler = new CompilerInterface()
     javaCompiler.compile("Test", source)
 
-    val tree = (new JTraversePass).run(javaCompiler.compilationUnit)
+    val interner = new Interner
+    val tree = new JTraversePass(interner = interner).run(javaCompiler.compilationUnit)
 
     val esp = new ExpSymsPass
     esp.run(tree)
-    val classes = Scope.getClasses(esp.scope)
+    val classes = ClassHierarchy(List(tree))
 
-    val opTree = new DesugarPass(verbose = false, classes).run(tree)
+    val foldedTree = new ConstFoldPass().run(tree)
+
+    val opTree = new DesugarPass(verbose = false, classes, interner).run(foldedTree)
 
     val taggedTree = new RefTagPass(scope = Scope.empty).run(opTree)
 
@@ -102,6 +107,13 @@ class SimpleRunTest {
     assertRun(41, "int x = 42; System.out.println(--x);")
   }
 
+  @Test def runSameDeclarationsInSuccessiveCompilations(): Unit = {
+    // the two `Test.x` have different flags: nothing of the symbols of a
+    // compilation may be reused by the next one
+    assertRun(42, "System.out.println(x);", "static int x = 42;")
+    assertRun(7, "System.out.println(new Test().x);", "int x = 7;")
+  }
+
   @Test def runForLoop(): Unit = {
     assertRun("42\n42\n42", "for (int i = 0; i < 3; i++) System.out.println(42);")
     assertRun("0\n1\n2", "for (int i = 0; i < 3; i++) System.out.println(i);")
@@ -709,4 +721,274 @@ class SimpleRunTest {
         |if (test != null) System.out.println(42);
       """.stripMargin, "")
   }
+
+  @Test def runConstantFolding(): Unit = {
+    assertRun(3600000, "System.out.println(60 * 60 * 1000);")
+    assertRun(-2147483648, "System.out.println(Integer.MAX_VALUE + 1);")
+    assertRun(98, "final char c = 'a'; System.out.println(c + 1);")
+
+    assertRun("limit: 42",
+      """
+        |System.out.println("limit: " + LIMIT);
+      """.stripMargin,
+      """
+        |static final int LIMIT = 42;
+      """.stripMargin)
+
+    assertRun(42,
+      """
+        |if (DEBUG) System.out.println(21);
+        |else System.out.println(42);
+      """.stripMargin,
+      """
+        |static final boolean DEBUG = false;
+      """.stripMargin)
+
+    assertRun(42,
+      """
+        |int x = 42;
+        |if (DEBUG && x > 0) System.out.println(21);
+        |System.out.println(x);
+      """.stripMargin,
+      """
+        |static final boolean DEBUG = false;
+      """.stripMargin)
+  }
+
+  @Test def runSwitch(): Unit = {
+    assertRun("two",
+      """
+        |int x = 2;
+        |switch (x) {
+        |  case 1: System.out.println("one"); break;
+        |  case 2: System.out.println("two"); break;
+        |  default: System.out.println("other");
+        |}
+      """.stripMargin)
+
+    assertRun("other",
+      """
+        |int x = 5;
+        |switch (x) {
+        |  case 1: System.out.println("one"); break;
+        |  default: System.out.println("other");
+        |}
+      """.stripMargin)
+
+    assertRun(6,
+      """
+        |int x = 1;
+        |int sum = 0;
+        |switch (x) {
+        |  case 1: sum += 1;
+        |  case 2: sum += 2;
+        |  case 3: sum += 3; break;
+        |  case 4: sum += 4;
+        |}
+        |System.out.println(sum);
+      """.stripMargin)
+
+    assertRun("vowel",
+      """
+        |char c = 'e';
+        |switch (c) {
+        |  case 'a': case 'e': case 'i': case 'o': case 'u':
+        |    System.out.println("vowel");
+        |    break;
+        |  default:
+        |    System.out.println("consonant");
+        |}
+      """.stripMargin)
+
+    assertRun(42,
+      """
+        |String cmd = "stop";
+        |int code;
+        |switch (cmd) {
+        |  case "start": code = 1; break;
+        |  case "stop": code = 42; break;
+        |  default: code = -1;
+        |}
+        |System.out.println(code);
+      """.stripMargin)
+
+    // the temporaries of a string switch do not clash with the locals
+    assertRun("7\n2\nb\n5",
+      """
+        |int index = 7;
+        |String selector = "b";
+        |int result = 0;
+        |switch (selector) {
+        |  case "a": result = 1; break;
+        |  case "b": result = 2; break;
+        |}
+        |System.out.println(index);
+        |System.out.println(result);
+        |System.out.println(selector);
+        |System.out.println(pick("x"));
+      """.stripMargin,
+      """
+        |static int pick(String s) {
+        |  int index = 5;
+        |  switch (s) {
+        |    case "x": return index;
+        |    default: return -index;
+        |  }
+        |}
+      """.stripMargin)
+
+    assertRun(3,
+      """
+        |int x = 0;
+        |switch (x) {
+        |  case 0:
+        |    int i = 0;
+        |    while (true) {
+        |      if (i == 3) break;
+        |      i++;
+        |    }
+        |    System.out.println(i);
+        |    break;
+        |  case 1:
+        |    i = 1;
+        |    System.out.println(i);
+        |}
+      """.stripMargin)
+
+    assertRun(12,
+      """
+        |int found = -1;
+        |outer:
+        |for (int i = 0; i < 10; i++) {
+        |  for (int j = 0; j < 10; j++) {
+        |    if (i * j == 12 && i == 3) {
+        |      found = i * j;
+        |      break outer;
+        |    }
+        |  }
+        |}
+        |System.out.println(found);
+      """.stripMargin)
+  }
+
+  @Test def runEnhancedForLoop(): Unit = {
+    assertRun(15,
+      """
+        |int[] xs = {1, 2, 3, 4, 5};
+        |int sum = 0;
+        |for (int x : xs) sum += x;
+        |System.out.println(sum);
+      """.stripMargin)
+
+    assertRun(3.5,
+      """
+        |double[] xs = {0.5, 1.0, 2.0};
+        |double sum = 0.0;
+        |for (double x : xs) sum += x;
+        |System.out.println(sum);
+      """.stripMargin)
+
+    assertRun(9,
+      """
+        |int[] xs = {1, 2, 3, 4, 5};
+        |int sum = 0;
+        |for (int x : xs) {
+        |  if (x % 2 == 0) continue;
+        |  sum += x;
+        |}
+        |System.out.println(sum);
+      """.stripMargin)
+
+    assertRun(6,
+      """
+        |int[] xs = {1, 2, 3};
+        |int[] ys = {1, 2};
+        |int last = 0;
+        |outer:
+        |for (int x : xs) {
+        |  for (int y : ys) {
+        |    if (x * y == 6) break outer;
+        |    last = x * y;
+        |  }
+        |}
+        |System.out.println(last + xs.length);
+      """.stripMargin)
+  }
+
+  @Test def runStringConcat(): Unit = {
+    assertRun("a12", "int x = 1; System.out.println(\"a\" + x + 2);")
+    assertRun("3a", "int x = 1; System.out.println(x + 2 + \"a\");")
+    assertRun("xyz", "char c = 'y'; System.out.println(\"x\" + c + 'z');")
+    assertRun("a-true-b", "boolean b = true; System.out.println(\"a-\" + b + (\"-\" + \"b\"));")
+
+    assertRun("0, 1, 2, ",
+      """
+        |String s = "";
+        |for (int i = 0; i < 3; i++) s += i + ", ";
+        |System.out.println(s);
+      """.stripMargin)
+  }
+
+  /** The IR of the class definitions of `source`, with the tagging done
+    * by `tag` (which returns the tagged tree, the static initializers and
+    * the mangler to compile with) */
+  private def compileTagged(source: String)(
+      tag: CompilationUnit => (CompilationUnit, Map[String, Expr], Mangler)): String = {
+    val javaCompiler = new CompilerInterface()
+    javaCompiler.compile("Test", source)
+
+    val interner = new Interner
+    val tree = new JTraversePass(interner = interner).run(javaCompiler.compilationUnit)
+    new ExpSymsPass().run(tree)
+    val classes = ClassHierarchy(List(tree))
+    val opTree = new DesugarPass(verbose = false, classes, interner).run(
+      new ConstFoldPass().run(tree))
+
+    val (taggedTree, inits, mangler) = tag(opTree)
+    val cp = new ConstructorPass
+    val fullTree = cp.run(taggedTree)
+
+    val classDefs = new CompilerPass(inits, classes, cp.constructors,
+      mangler = mangler).run(fullTree)._1
+    classDefs.map(_.toString).mkString("\n")
+  }
+
+  @Test def fusedTaggingMatchesSeparatePasses(): Unit = {
+    val source = wrapperMainClass(
+      """
+        |static int counter = 40;
+        |static String name = "x" + counter;
+        |int field = 1;
+        |
+        |int sum(int n) {
+        |  int acc = field;
+        |  for (int i = 0; i < n; i++) {
+        |    int field = i;
+        |    acc += field;
+        |  }
+        |  return acc;
+        |}
+      """.stripMargin,
+      """
+        |int x = counter + 2;
+        |Test t = new Test();
+        |System.out.println(t.sum(x) + name);
+      """.stripMargin, "")
+
+    val separate = compileTagged(source) { tree =>
+      val refTagged = new RefTagPass(scope = Scope.empty).run(tree)
+      val enclTagged = (new EnclClassPass).run(refTagged)
+      val sip = new StaticInitsPass
+      sip.run(enclTagged)
+      (enclTagged, sip.inits, new Mangler)
+    }
+
+    val fused = compileTagged(source) { tree =>
+      val mangler = new Mangler
+      val tp = new TaggingPass(scope = Scope.empty, mangler = mangler)
+      (tp.run(tree), tp.inits, mangler)
+    }
+
+    assertEquals(separate, fused)
+  }
 }